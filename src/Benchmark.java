@@ -0,0 +1,323 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the grade paths, run the same way every time so a change to GradeManager can be measured before and
+ * after. Works like a small JMH with no dependencies: each benchmark runs warm up iterations, then measured iterations
+ * of about a second each, and reports the average time per operation with its standard deviation across iterations,
+ * plus the bytes allocated per operation on the benchmark thread.
+ *
+ *   java -cp src:src/libs/mysql-connector-java-5.1.47.jar Benchmark [name ...] [--sizes 100,1000,10000]
+ *        [--warmup 3] [--iterations 5] [--iteration-ms 1000]
+ *
+ * parseCommand tokenizes a command line and finds its command, which should allocate 0 bytes per operation, and
+ * needs no database. gradeAssignment, showStudentGrades and showGradebook run against the database set up with the
+ * CS410_* environment variables, on one class per size (course BENCH, term Fa99, section = the number of students)
+ * that the benchmark creates the first time and reuses afterwards. Each of those classes has 3 categories,
+ * 12 assignments and a grade for every student on every assignment. Command output is thrown away.
+ */
+public class Benchmark {
+
+    private static final String COURSE = "BENCH";
+    private static final String TERM = "Fa99";
+    private static final String[][] CATEGORIES = { { "Homework", "0.3" }, { "Exams", "0.5" }, { "Projects", "0.2" } };
+    private static final int ASSIGNMENTS_PER_CATEGORY = 4;
+    private static final int BATCH_SIZE = 1000;
+
+    private static volatile Object blackhole; // keeps results alive so the JIT can't drop the work
+
+    private static int warmupIterations = 3;
+    private static int measuredIterations = 5;
+    private static long iterationMillis = 1000;
+
+    /**
+     * A benchmarked operation. i counts up from 0 across all iterations.
+     */
+    private interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = new ArrayList<String>();
+        int[] sizes = { 100, 1000, 10000 };
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sizes")) {
+                sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (args[i].equals("--warmup")) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations")) {
+                measuredIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iteration-ms")) {
+                iterationMillis = Long.parseLong(args[++i]);
+            } else {
+                names.add(args[i]);
+            }
+        }
+
+        System.out.printf("%-20s %10s %10s %12s %10s %8s %12s%n",
+                "Benchmark", "(students)", "Iterations", "Score", "Error", "Units", "Alloc B/op");
+
+        if (selected(names, "parseCommand")) {
+            String line = "grade \"Midterm Exam\" jane_smith 40";
+            CommandTokenizer tokens = new CommandTokenizer();
+            run("parseCommand", "-", i -> {
+                tokens.tokenize(line);
+                blackhole = GradeManager.COMMANDS.find(tokens);
+            });
+        }
+
+        boolean needsDatabase = selected(names, "gradeAssignment") || selected(names, "showStudentGrades")
+                || selected(names, "showGradebook");
+        if (needsDatabase) {
+            Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+            for (int size : sizes) {
+                int classId = createClass(size);
+                String[] usernames = new String[size];
+                for (int s = 0; s < size; s++) {
+                    usernames[s] = username(size, s);
+                }
+
+                if (selected(names, "gradeAssignment")) {
+                    run("gradeAssignment", Integer.toString(size), i -> GradeManager.gradeAssignment(
+                            session, "Homework 1", usernames[i % size], i % 11, classId));
+                }
+                if (selected(names, "showStudentGrades")) {
+                    run("showStudentGrades", Integer.toString(size),
+                            i -> GradeManager.showStudentGrades(session, usernames[i % size], classId));
+                }
+                if (selected(names, "showGradebook")) {
+                    run("showGradebook", Integer.toString(size), i -> GradeManager.showGradebook(session, classId));
+                }
+            }
+            Database.shutdown();
+        }
+    }
+
+    private static boolean selected(List<String> names, String name) {
+        return names.isEmpty() || names.contains(name);
+    }
+
+    /**
+     * Runs one benchmark and prints its row.
+     */
+    private static void run(String name, String parameter, Operation operation) throws Exception {
+        int i = 0;
+        for (int iteration = 0; iteration < warmupIterations; iteration++) {
+            long end = System.nanoTime() + iterationMillis * 1000000;
+            while (System.nanoTime() < end) {
+                operation.run(i++);
+            }
+        }
+
+        double[] microsPerOperation = new double[measuredIterations];
+        long operations = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int iteration = 0; iteration < measuredIterations; iteration++) {
+            long start = System.nanoTime();
+            long end = start + iterationMillis * 1000000;
+            long count = 0;
+            long now;
+            do {
+                operation.run(i++);
+                count++;
+                now = System.nanoTime();
+            } while (now < end);
+            microsPerOperation[iteration] = (now - start) / 1000.0 / count;
+            operations += count;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double mean = Arrays.stream(microsPerOperation).average().orElse(0);
+        double variance = Arrays.stream(microsPerOperation).map(x -> (x - mean) * (x - mean)).sum()
+                / Math.max(1, measuredIterations - 1);
+        System.out.printf("%-20s %10s %10d %12.3f %s%9.3f %8s %12s%n", name, parameter, measuredIterations,
+                mean, "+-", Math.sqrt(variance), "us/op",
+                allocated < 0 ? "n/a" : Long.toString(allocated / Math.max(1, operations)));
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM can't tell
+     */
+    @SuppressWarnings("deprecation") // getId() is the only way before Java 19
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String username(int size, int student) {
+        return "bench" + size + "-" + student;
+    }
+
+    /**
+     * Finds the benchmark class for a size, creating and filling it if it doesn't exist yet.
+     * @return the class_id of the class
+     */
+    private static int createClass(int size) throws SQLException {
+        try (Connection connection = Database.getDatabaseConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT class_id FROM Classes WHERE course_num = ? AND term = ? AND section_num = ?")) {
+                preparedStatement.setString(1, COURSE);
+                preparedStatement.setString(2, TERM);
+                preparedStatement.setInt(3, size);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return resultSet.getInt(1);
+                    }
+                }
+            }
+
+            System.out.println("Creating the benchmark class with " + size + " students");
+            connection.setAutoCommit(false);
+            try {
+                int classId = fillClass(connection, size);
+                connection.commit();
+                return classId;
+            } catch (SQLException sqlException) {
+                connection.rollback();
+                throw sqlException;
+            }
+        }
+    }
+
+    private static int fillClass(Connection connection, int size) throws SQLException {
+        Random random = new Random(size);
+
+        int classId;
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO Classes (course_num, term, section_num, description) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, COURSE);
+            preparedStatement.setString(2, TERM);
+            preparedStatement.setInt(3, size);
+            preparedStatement.setString(4, "Benchmark class with " + size + " students");
+            preparedStatement.executeUpdate();
+            classId = generatedKey(preparedStatement);
+        }
+
+        // categories and assignments, point values: homework 10, exams 100, projects 50
+        List<Integer> assignmentIds = new ArrayList<Integer>();
+        List<Integer> assignmentPoints = new ArrayList<Integer>();
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            int points = c == 0 ? 10 : c == 1 ? 100 : 50;
+            int categoryId;
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "INSERT INTO Categories (class_id, name, weight, total_points) VALUES (?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                preparedStatement.setInt(1, classId);
+                preparedStatement.setString(2, CATEGORIES[c][0]);
+                preparedStatement.setFloat(3, Float.parseFloat(CATEGORIES[c][1]));
+                preparedStatement.setInt(4, points * ASSIGNMENTS_PER_CATEGORY);
+                preparedStatement.executeUpdate();
+                categoryId = generatedKey(preparedStatement);
+            }
+            for (int a = 1; a <= ASSIGNMENTS_PER_CATEGORY; a++) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        "INSERT INTO Assignments (category_id, name, description, point_val) VALUES (?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    preparedStatement.setInt(1, categoryId);
+                    preparedStatement.setString(2, CATEGORIES[c][0] + " " + a);
+                    preparedStatement.setString(3, "Benchmark assignment");
+                    preparedStatement.setInt(4, points);
+                    preparedStatement.executeUpdate();
+                    assignmentIds.add(generatedKey(preparedStatement));
+                    assignmentPoints.add(points);
+                }
+            }
+        }
+
+        // students, reusing any left over from an earlier attempt
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT IGNORE INTO Students (username, name) VALUES (?, ?)")) {
+            for (int s = 0; s < size; s++) {
+                preparedStatement.setString(1, username(size, s));
+                preparedStatement.setString(2, "Benchmark Student " + s);
+                preparedStatement.addBatch();
+                if ((s + 1) % BATCH_SIZE == 0) {
+                    preparedStatement.executeBatch();
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+
+        int[] studentIds = new int[size];
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT student_id, username FROM Students WHERE username LIKE ?")) {
+            preparedStatement.setString(1, "bench" + size + "-%");
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                String prefix = "bench" + size + "-";
+                while (resultSet.next()) {
+                    int student = Integer.parseInt(resultSet.getString(2).substring(prefix.length()));
+                    if (student < size) {
+                        studentIds[student] = resultSet.getInt(1);
+                    }
+                }
+            }
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO Enrollments (student_id, class_id) VALUES (?, ?)")) {
+            for (int s = 0; s < size; s++) {
+                preparedStatement.setInt(1, studentIds[s]);
+                preparedStatement.setInt(2, classId);
+                preparedStatement.addBatch();
+                if ((s + 1) % BATCH_SIZE == 0) {
+                    preparedStatement.executeBatch();
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO Grades (student_id, assignment_id, score) VALUES (?, ?, ?)")) {
+            int batched = 0;
+            for (int s = 0; s < size; s++) {
+                for (int a = 0; a < assignmentIds.size(); a++) {
+                    int points = assignmentPoints.get(a);
+                    preparedStatement.setInt(1, studentIds[s]);
+                    preparedStatement.setInt(2, assignmentIds.get(a));
+                    preparedStatement.setFloat(3, Math.round(points * (0.5f + random.nextFloat() * 0.5f)));
+                    preparedStatement.addBatch();
+                    if (++batched % BATCH_SIZE == 0) {
+                        preparedStatement.executeBatch();
+                    }
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+
+        // the running totals the gradebooks read
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points) " +
+                "SELECT g.student_id, a.category_id, SUM(g.score), SUM(a.point_val) " +
+                "FROM Categories c " +
+                "JOIN Assignments a ON a.category_id = c.category_id " +
+                "JOIN Grades g ON g.assignment_id = a.assignment_id " +
+                "WHERE c.class_id = ? " +
+                "GROUP BY g.student_id, a.category_id")) {
+            preparedStatement.setInt(1, classId);
+            preparedStatement.executeUpdate();
+        }
+
+        return classId;
+    }
+
+    private static int generatedKey(PreparedStatement preparedStatement) throws SQLException {
+        try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+            generatedKeys.next();
+            return generatedKeys.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-through cache of the categories and assignments of each class. This metadata changes rarely but
+ * almost every command needs it, so it is loaded once per class (when the class is selected, or the first
+ * time it is needed) and kept until addCategory, addAssignment or createNewClass invalidates it.
+ * The cache holds a bounded number of classes and evicts the least recently used one when it is full.
+ * Changes made to the metadata by another process are not seen until the class is invalidated or evicted.
+ */
+public class ClassMetadataCache {
+
+    private static final int CAPACITY = Database.getEnvInt("CS410_METADATA_CACHE_SIZE", 64);
+
+    // least recently used first
+    private static final LinkedHashMap<Integer, ClassMetadata> cache = new LinkedHashMap<Integer, ClassMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ClassMetadata> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private static long generation; // bumped on every invalidation so a load that raced with one isn't cached
+    private static long hits;
+    private static long misses;
+
+    /**
+     * Returns the metadata of a class, getting a connection from the session to load it only if it isn't cached.
+     * @param session the session of the command that needs the metadata
+     * @param classId the class_id of the class
+     * @return the class's categories and assignments
+     * @throws SQLException
+     */
+    public static ClassMetadata get(Session session, int classId) throws SQLException {
+        synchronized (cache) {
+            ClassMetadata metadata = cache.get(classId);
+            if (metadata != null) {
+                hits++;
+                return metadata;
+            }
+        }
+        try (Connection connection = session.getConnection()) {
+            return get(connection, classId);
+        }
+    }
+
+    /**
+     * Returns the metadata of a class, loading it on the given connection if it isn't cached.
+     * @param connection the connection of the command that needs the metadata
+     * @param classId the class_id of the class
+     * @return the class's categories and assignments
+     * @throws SQLException
+     */
+    public static ClassMetadata get(Connection connection, int classId) throws SQLException {
+        long loadGeneration;
+        synchronized (cache) {
+            ClassMetadata metadata = cache.get(classId);
+            if (metadata != null) {
+                hits++;
+                return metadata;
+            }
+            misses++;
+            loadGeneration = generation;
+        }
+
+        ClassMetadata metadata = load(connection, classId);
+
+        synchronized (cache) {
+            if (generation == loadGeneration) {
+                cache.put(classId, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Drops a class from the cache after its categories or assignments changed.
+     * @param classId the class_id of the class
+     */
+    public static void invalidate(int classId) {
+        synchronized (cache) {
+            cache.remove(classId);
+            generation++;
+        }
+    }
+
+    /**
+     * Drops every cached class.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * @return how many lookups were answered from the cache
+     */
+    public static long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return how many lookups had to load the class from the database
+     */
+    public static long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    private static ClassMetadata load(Connection connection, int classId) throws SQLException {
+        List<Category> categories = new ArrayList<Category>();
+        List<Assignment> assignments = new ArrayList<Assignment>();
+
+        String categoryQuery = "SELECT category_id, name, weight " +
+                               "FROM Categories " +
+                               "WHERE class_id = ? " +
+                               "ORDER BY category_id";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(categoryQuery)) {
+            preparedStatement.setInt(1, classId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    categories.add(new Category(resultSet.getInt("category_id"), resultSet.getString("name"), resultSet.getFloat("weight")));
+                }
+            }
+        }
+
+        String assignmentQuery = "SELECT a.assignment_id, a.category_id, c.name AS category_name, a.name, a.point_val " +
+                                 "FROM Assignments a " +
+                                 "JOIN Categories c ON a.category_id = c.category_id " +
+                                 "WHERE c.class_id = ? " +
+                                 "ORDER BY c.name, a.name";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(assignmentQuery)) {
+            preparedStatement.setInt(1, classId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    assignments.add(new Assignment(resultSet.getInt("assignment_id"), resultSet.getInt("category_id"),
+                            resultSet.getString("category_name"), resultSet.getString("name"), resultSet.getInt("point_val")));
+                }
+            }
+        }
+
+        return new ClassMetadata(classId, categories, assignments);
+    }
+
+    /**
+     * The categories and assignments of one class. Never changed once loaded.
+     */
+    public static class ClassMetadata {
+        public final int classId;
+        /** in category_id order */
+        public final List<Category> categories;
+        /** in category name, then assignment name order */
+        public final List<Assignment> assignments;
+        private final Map<String, Category> categoriesByName = new HashMap<String, Category>();
+        private final Map<String, Assignment> assignmentsByName = new HashMap<String, Assignment>();
+
+        ClassMetadata(int classId, List<Category> categories, List<Assignment> assignments) {
+            this.classId = classId;
+            this.categories = Collections.unmodifiableList(categories);
+            this.assignments = Collections.unmodifiableList(assignments);
+            for (Category category : categories) {
+                categoriesByName.put(category.name, category);
+            }
+            for (Assignment assignment : assignments) {
+                // names are only unique within a category, the first one wins like it did in the old lookup query
+                assignmentsByName.putIfAbsent(assignment.name, assignment);
+            }
+        }
+
+        /**
+         * @param name the name of the category
+         * @return the category, or null if the class has no category with that name
+         */
+        public Category getCategory(String name) {
+            return categoriesByName.get(name);
+        }
+
+        /**
+         * @param name the name of the assignment
+         * @return the assignment, or null if the class has no assignment with that name
+         */
+        public Assignment getAssignment(String name) {
+            return assignmentsByName.get(name);
+        }
+    }
+
+    /**
+     * A row of Categories.
+     */
+    public static class Category {
+        public final int categoryId;
+        public final String name;
+        public final float weight;
+
+        Category(int categoryId, String name, float weight) {
+            this.categoryId = categoryId;
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A row of Assignments with the name of its category.
+     */
+    public static class Assignment {
+        public final int assignmentId;
+        public final int categoryId;
+        public final String categoryName;
+        public final String name;
+        public final int pointValue;
+
+        Assignment(int assignmentId, int categoryId, String categoryName, String name, int pointValue) {
+            this.assignmentId = assignmentId;
+            this.categoryId = categoryId;
+            this.categoryName = categoryName;
+            this.name = name;
+            this.pointValue = pointValue;
+        }
+    }
+}
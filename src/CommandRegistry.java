@@ -0,0 +1,294 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The commands of the grade manager, each with the signature of its arguments. A command line is looked up once
+ * by the name of its command, then its arguments are checked against the signature and converted to their types
+ * before the command runs, so a handler never sees a missing or malformed argument. Checking never throws: bind
+ * returns what is wrong with the arguments instead, which lets a script be checked completely before any of it
+ * runs.
+ *
+ * A signature lists the arguments the way the help shows them, separated by spaces:
+ *
+ *   name            any text
+ *   name:int        a whole number
+ *   name:float      a number
+ *   {csv|json}      one of the listed words
+ *   [ ... ]         the arguments inside can be left out, all together. Groups can nest, like course [term [section:int]]
+ *
+ * Commands are registered once at startup, then only looked up.
+ */
+public class CommandRegistry {
+
+    private final CommandTokenizer.Table<Command> table = new CommandTokenizer.Table<Command>();
+    private final List<Command> commands = new ArrayList<Command>();
+
+    /**
+     * Runs a command whose arguments have been checked.
+     */
+    public interface Handler {
+        void run(Session session, Arguments arguments);
+    }
+
+    /**
+     * Adds a command.
+     * @param name what the command is called
+     * @param signature its arguments, see the class comment
+     * @param handler runs it
+     * @throws IllegalArgumentException if the signature can't be read
+     */
+    public void register(String name, String signature, Handler handler) {
+        Command command = new Command(name, signature, handler);
+        table.put(name, command);
+        commands.add(command);
+    }
+
+    /**
+     * @return the command named by the first token of a line, or null if there is none. Allocates nothing.
+     */
+    public Command find(CommandTokenizer tokens) {
+        int slot = tokens.size() == 0 ? -1 : table.indexOf(tokens, 0);
+        return slot < 0 ? null : table.valueAt(slot);
+    }
+
+    /**
+     * @return the command with a name, or null if there is none
+     */
+    public Command find(String name) {
+        int slot = table.indexOf(name);
+        return slot < 0 ? null : table.valueAt(slot);
+    }
+
+    /**
+     * Prints the usage of every command, in the order they were registered.
+     */
+    public void printUsage(PrintStream out) {
+        for (Command command : commands) {
+            out.println(command.getUsage());
+        }
+    }
+
+    /**
+     * A command and the signature of its arguments.
+     */
+    public static class Command {
+        private static final int TEXT = 0;
+        private static final int INT = 1;
+        private static final int FLOAT = 2;
+        private static final int CHOICE = 3;
+
+        private final String name;
+        private final String usage;
+        private final Handler handler;
+        private final String[] parameterNames;
+        private final int[] parameterTypes;
+        private final String[][] choices;
+        private final boolean[] allowedCounts; // allowedCounts[n]: whether the command can take n arguments
+
+        Command(String name, String signature, Handler handler) {
+            this.name = name;
+            this.usage = signature.isEmpty() ? name : name + " " + signature;
+            this.handler = handler;
+
+            List<String> names = new ArrayList<String>();
+            List<Integer> types = new ArrayList<Integer>();
+            List<String[]> choiceList = new ArrayList<String[]>();
+            List<Integer> counts = new ArrayList<Integer>();
+            int depth = 0;
+            for (String part : signature.replace("[", " [ ").replace("]", " ] ").trim().split("\\s+")) {
+                if (part.isEmpty()) {
+                    continue;
+                } else if (part.equals("[")) {
+                    // leaving out everything from here on is allowed
+                    counts.add(names.size());
+                    depth++;
+                } else if (part.equals("]")) {
+                    if (--depth < 0) {
+                        throw new IllegalArgumentException("Unmatched ] in the signature of " + name);
+                    }
+                } else if (part.startsWith("{") && part.endsWith("}")) {
+                    names.add(part);
+                    types.add(CHOICE);
+                    choiceList.add(part.substring(1, part.length() - 1).split("\\|"));
+                } else {
+                    int colon = part.indexOf(':');
+                    String type = colon < 0 ? "" : part.substring(colon + 1);
+                    names.add(colon < 0 ? part : part.substring(0, colon));
+                    types.add(type.isEmpty() ? TEXT : type.equals("int") ? INT : type.equals("float") ? FLOAT : -1);
+                    choiceList.add(null);
+                    if (types.get(types.size() - 1) < 0) {
+                        throw new IllegalArgumentException("Unknown type " + type + " in the signature of " + name);
+                    }
+                }
+            }
+            if (depth != 0) {
+                throw new IllegalArgumentException("Unmatched [ in the signature of " + name);
+            }
+            counts.add(names.size());
+
+            parameterNames = names.toArray(new String[0]);
+            parameterTypes = types.stream().mapToInt(Integer::intValue).toArray();
+            choices = choiceList.toArray(new String[0][]);
+            allowedCounts = new boolean[names.size() + 1];
+            for (int count : counts) {
+                allowedCounts[count] = true;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the name and signature, like grade assignment username grade:float
+         */
+        public String getUsage() {
+            return usage;
+        }
+
+        /**
+         * Checks arguments against the signature and converts them.
+         * @param values the arguments after the name of the command
+         * @param errors where to add what is wrong with them
+         * @return the converted arguments, or null if they don't match the signature
+         */
+        public Arguments bind(List<String> values, List<String> errors) {
+            int count = values.size();
+            if (count >= allowedCounts.length || !allowedCounts[count]) {
+                errors.add((count < parameterNames.length ? "Missing arguments" : "Too many arguments")
+                        + " for " + name + ". Usage: " + usage);
+                return null;
+            }
+
+            Arguments arguments = new Arguments(count);
+            for (int i = 0; i < count; i++) {
+                String value = values.get(i);
+                switch (parameterTypes[i]) {
+                    case INT:
+                        if (!isInt(value)) {
+                            errors.add(parameterNames[i] + " must be a whole number, not " + value + ". Usage: " + usage);
+                            return null;
+                        }
+                        arguments.numbers[i] = Integer.parseInt(value);
+                        break;
+                    case FLOAT:
+                        if (!isFloat(value)) {
+                            errors.add(parameterNames[i] + " must be a number, not " + value + ". Usage: " + usage);
+                            return null;
+                        }
+                        arguments.numbers[i] = Float.parseFloat(value);
+                        break;
+                    case CHOICE:
+                        int choice = Arrays.asList(choices[i]).indexOf(value);
+                        if (choice < 0) {
+                            errors.add("Expected " + String.join(" or ", choices[i]) + ", not " + value + ". Usage: " + usage);
+                            return null;
+                        }
+                        value = choices[i][choice];
+                        break;
+                    default:
+                        break;
+                }
+                arguments.values[i] = value;
+            }
+            return arguments;
+        }
+
+        /**
+         * Runs the command with arguments bound by this command.
+         */
+        public void run(Session session, Arguments arguments) {
+            handler.run(session, arguments);
+        }
+
+        /**
+         * @return whether text is a whole number that fits in an int
+         */
+        private static boolean isInt(String text) {
+            int i = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+            if (i == text.length()) {
+                return false;
+            }
+            long value = 0;
+            for (; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    return false;
+                }
+            }
+            return text.startsWith("-") || value <= Integer.MAX_VALUE;
+        }
+
+        /**
+         * @return whether text is a decimal number like 9, -0.5, .5 or 1e3
+         */
+        private static boolean isFloat(String text) {
+            int i = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+            int digits = 0;
+            while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                i++;
+                digits++;
+            }
+            if (i < text.length() && text.charAt(i) == '.') {
+                i++;
+                while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                    i++;
+                    digits++;
+                }
+            }
+            if (digits == 0) {
+                return false;
+            }
+            if (i < text.length() && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+                i++;
+                if (i < text.length() && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                    i++;
+                }
+                int exponentDigits = 0;
+                while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                    i++;
+                    exponentDigits++;
+                }
+                if (exponentDigits == 0) {
+                    return false;
+                }
+            }
+            return i == text.length() && !Float.isInfinite(Float.parseFloat(text));
+        }
+    }
+
+    /**
+     * The arguments of a command, checked and converted. An optional argument that was left out is past size().
+     */
+    public static class Arguments {
+        private final String[] values;
+        private final double[] numbers;
+
+        Arguments(int size) {
+            values = new String[size];
+            numbers = new double[size];
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public String getString(int index) {
+            return values[index];
+        }
+
+        public int getInt(int index) {
+            return (int) numbers[index];
+        }
+
+        public float getFloat(int index) {
+            return (float) numbers[index];
+        }
+    }
+}
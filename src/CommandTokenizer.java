@@ -0,0 +1,220 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a command line into its tokens. Tokens are separated by whitespace, and a token in double quotes can
+ * contain whitespace ("Midterm Exam"). Quotes inside an unquoted token are dropped, like abc"def reads as abcdef.
+ *
+ * A tokenizer is meant to be reused for every line of a prompt or script: the tokens are kept in buffers that
+ * only grow, and a token only becomes a String when someone asks for it, so tokenizing a line and looking its
+ * command up in a Table allocates nothing once the buffers are big enough. Not thread safe.
+ */
+public class CommandTokenizer {
+
+    private char[] text = new char[128]; // the tokens back to back, without their quotes
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count;
+
+    private final List<String> arguments = new AbstractList<String>() {
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Missing argument " + (index + 1));
+            }
+            return getString(index + 1);
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, count - 1);
+        }
+    };
+
+    /**
+     * Splits a line into tokens, replacing the tokens of the previous line.
+     * @param line the command line
+     * @return how many tokens it has
+     */
+    public int tokenize(CharSequence line) {
+        int n = line.length();
+        if (text.length < n) {
+            text = new char[Math.max(n, text.length * 2)];
+        }
+        count = 0;
+        int length = 0;
+        int i = 0;
+        while (true) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i >= n) {
+                break;
+            }
+
+            int start = length;
+            if (line.charAt(i) == '"') {
+                // up to the closing quote, or the end of the line if there is none
+                i++;
+                while (i < n && line.charAt(i) != '"') {
+                    text[length++] = line.charAt(i++);
+                }
+                i++;
+            } else {
+                while (i < n && !Character.isWhitespace(line.charAt(i))) {
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        text[length++] = c;
+                    }
+                }
+            }
+
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = length;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return how many tokens the last line had
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return whether a token is the given text
+     */
+    public boolean equals(int index, String value) {
+        int length = ends[index] - starts[index];
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[starts[index] + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the same hash as getString(index).hashCode(), without making the String
+     */
+    public int hashCode(int index) {
+        int hash = 0;
+        for (int i = starts[index]; i < ends[index]; i++) {
+            hash = 31 * hash + text[i];
+        }
+        return hash;
+    }
+
+    /**
+     * @return a token as a new String
+     */
+    public String getString(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No token " + index);
+        }
+        return new String(text, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * @return the tokens after the command name. The list is a view that changes with the next line, and each get
+     * makes a new String.
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * A fixed set of names, like the commands, that can be looked up by a token without making a String of it.
+     * Open addressing over a power of two array; filled once at startup, then only read.
+     * @param <V> what each name maps to
+     */
+    public static class Table<V> {
+        private String[] keys = new String[16];
+        private Object[] values = new Object[16];
+        private int size;
+
+        /**
+         * Adds a name, or replaces what it maps to.
+         */
+        public void put(String key, V value) {
+            if ((size + 1) * 2 > keys.length) {
+                String[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new String[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+        }
+
+        private void insert(String key, Object value) {
+            int slot = key.hashCode() & (keys.length - 1);
+            while (keys[slot] != null && !keys[slot].equals(key)) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            if (keys[slot] == null) {
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        /**
+         * @return the slot of a name, or -1 if it isn't in the table
+         */
+        public int indexOf(String key) {
+            int slot = key.hashCode() & (keys.length - 1);
+            while (keys[slot] != null) {
+                if (keys[slot].equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * @return the slot of the name in a token, or -1 if it isn't in the table
+         */
+        public int indexOf(CommandTokenizer tokens, int token) {
+            int slot = tokens.hashCode(token) & (keys.length - 1);
+            while (keys[slot] != null) {
+                if (tokens.equals(token, keys[slot])) {
+                    return slot;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * @return the name in a slot
+         */
+        public String keyAt(int slot) {
+            return keys[slot];
+        }
+
+        /**
+         * @return what the name in a slot maps to
+         */
+        @SuppressWarnings("unchecked")
+        public V valueAt(int slot) {
+            return (V) values[slot];
+        }
+    }
+}
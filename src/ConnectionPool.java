@@ -0,0 +1,770 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of database connections. Connections handed out by borrow() look like normal
+ * connections, but calling close() on them gives the physical connection back to the pool instead
+ * of closing it, so commands no longer pay for a new TCP connection and login every time.
+ * The pool keeps at least minSize connections open, never opens more than maxSize, closes connections
+ * that sit idle for too long, checks connections before handing them out, and warns about connections
+ * that were borrowed and never returned.
+ * Each pooled connection also keeps a small LRU cache of prepared statements keyed by their SQL text,
+ * so preparing the same query again on the same connection reuses the statement instead of parsing it again.
+ * Borrow times, statement executions and other round trips to the server are reported to Metrics, and
+ * statements slower than the SlowQueryLog threshold are logged with their bind values.
+ */
+public class ConnectionPool {
+
+    /**
+     * Opens a new physical connection for the pool.
+     */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    // connection methods that go to the server, counted as round trips by Metrics
+    private static final Set<String> ROUND_TRIPS = new HashSet<String>(Arrays.asList(
+            "commit", "rollback", "setSavepoint", "releaseSavepoint"));
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final long validationIntervalMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition returned = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>(); // most recently used first
+    private final List<PooledConnection> borrowed = new ArrayList<PooledConnection>();
+    private int totalConnections; // idle + borrowed + ones currently being opened
+    private boolean closed;
+    private final Thread housekeeper;
+
+    /**
+     * Creates a new pool. No connections are opened until the housekeeper runs or the first borrow.
+     * @param factory opens physical connections
+     * @param minSize connections to keep open even when idle
+     * @param maxSize most connections that can be open at once
+     * @param idleTimeoutMillis how long a connection above minSize can sit idle before it is closed
+     * @param borrowTimeoutMillis how long borrow() waits for a free connection before giving up
+     * @param leakThresholdMillis how long a connection can be borrowed before a warning is printed, 0 to disable
+     * @param validationIntervalMillis connections idle for longer than this are checked before being handed out
+     * @param validationTimeoutSeconds how long the check may take
+     * @param statementCacheSize prepared statements cached per connection, 0 to disable the cache
+     */
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize, long idleTimeoutMillis,
+            long borrowTimeoutMillis, long leakThresholdMillis, long validationIntervalMillis, int validationTimeoutSeconds,
+            int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+
+        housekeeper = new Thread(this::housekeep, "connection-pool-housekeeper");
+        housekeeper.setDaemon(true);
+        housekeeper.start();
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none are idle and the pool is not full.
+     * Waits up to the borrow timeout if the pool is full.
+     * @return a connection that goes back to the pool when it is closed
+     * @throws SQLException if no connection becomes available in time or a new one can't be opened
+     */
+    public Connection borrow() throws SQLException {
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        while (true) {
+            PooledConnection pooled = null;
+            boolean openNew = false;
+
+            lock.lock();
+            try {
+                while (pooled == null && !openNew) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    pooled = idle.pollFirst();
+                    if (pooled == null) {
+                        if (totalConnections < maxSize) {
+                            totalConnections++; // reserve a slot, the connection is opened outside the lock
+                            openNew = true;
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                throw new SQLException("Timed out after " + borrowTimeoutMillis
+                                        + "ms waiting for a database connection (pool size " + maxSize + ")");
+                            }
+                            try {
+                                returned.awaitNanos(remaining);
+                            } catch (InterruptedException interrupted) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted while waiting for a database connection");
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (openNew) {
+                pooled = open();
+            } else if (!validate(pooled)) {
+                discard(pooled);
+                continue;
+            }
+
+            lock.lock();
+            try {
+                pooled.borrowedAt = System.currentTimeMillis();
+                pooled.borrowSite = leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+                pooled.leakReported = false;
+                borrowed.add(pooled);
+            } finally {
+                lock.unlock();
+            }
+            Metrics.recordConnectionAcquire(System.nanoTime() - startTime);
+            return pooled.newHandle();
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops handing out new ones. Borrowed connections are closed
+     * when they are returned.
+     */
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            totalConnections -= toClose.size();
+            returned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.interrupt();
+        for (PooledConnection pooled : toClose) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    /**
+     * @return the number of connections currently open, borrowed or idle
+     */
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of connections currently borrowed
+     */
+    public int getBorrowedConnections() {
+        lock.lock();
+        try {
+            return borrowed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the most connections the pool will open at once
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return how many prepareStatement calls were answered from a statement cache
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * @return how many prepareStatement calls had to prepare a new statement
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Opens a new physical connection for a slot that has already been reserved in totalConnections.
+     */
+    private PooledConnection open() throws SQLException {
+        try {
+            return new PooledConnection(factory.open());
+        } catch (SQLException | RuntimeException e) {
+            lock.lock();
+            try {
+                totalConnections--;
+                returned.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks a connection that has been idle for a while before it is handed out again.
+     */
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            Metrics.recordRoundTrip();
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException sqlException) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes a connection that is no longer usable and frees its slot.
+     */
+    private void discard(PooledConnection pooled) {
+        closeQuietly(pooled.physical);
+        lock.lock();
+        try {
+            borrowed.remove(pooled);
+            totalConnections--;
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool once its handle has been closed. Anything the borrower left
+     * behind (open statements, an unfinished transaction) is cleaned up first.
+     */
+    private void release(PooledConnection pooled, List<Statement> statements) {
+        boolean reusable = true;
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException se) {
+                // the statement is unusable either way
+            }
+        }
+        try {
+            if (pooled.physical.isClosed()) {
+                reusable = false;
+            } else if (pooled.transactionOpen) {
+                // auto-commit is left as it is, the next handle only changes it if its borrower needs the other mode
+                pooled.physical.rollback();
+                pooled.transactionOpen = false;
+            }
+        } catch (SQLException sqlException) {
+            reusable = false;
+        }
+
+        if (!reusable) {
+            discard(pooled);
+            return;
+        }
+
+        boolean closeNow;
+        lock.lock();
+        try {
+            borrowed.remove(pooled);
+            pooled.lastUsed = System.currentTimeMillis();
+            closeNow = closed;
+            if (closeNow) {
+                totalConnections--;
+            } else {
+                idle.addFirst(pooled);
+            }
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (closeNow) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    /**
+     * Runs in the background: closes connections that have been idle too long, keeps minSize connections
+     * open, and reports connections that look like they were never returned.
+     */
+    private void housekeep() {
+        long interval = Math.max(1000, Math.min(30000, idleTimeoutMillis / 2));
+        while (true) {
+            List<PooledConnection> expired = new ArrayList<PooledConnection>();
+            int missing;
+
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+
+                // least recently used connections are at the end of the deque
+                Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+                while (oldestFirst.hasNext() && totalConnections - expired.size() > minSize) {
+                    PooledConnection pooled = oldestFirst.next();
+                    if (now - pooled.lastUsed < idleTimeoutMillis) {
+                        break;
+                    }
+                    oldestFirst.remove();
+                    expired.add(pooled);
+                }
+                totalConnections -= expired.size();
+
+                if (leakThresholdMillis > 0) {
+                    for (PooledConnection pooled : borrowed) {
+                        if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                            pooled.leakReported = true;
+                            System.err.println("Warning: a database connection has been borrowed for "
+                                    + (now - pooled.borrowedAt) + "ms without being returned");
+                            if (pooled.borrowSite != null) {
+                                pooled.borrowSite.printStackTrace();
+                            }
+                        }
+                    }
+                }
+
+                missing = Math.max(0, minSize - totalConnections);
+                totalConnections += missing;
+            } finally {
+                lock.unlock();
+            }
+
+            for (PooledConnection pooled : expired) {
+                closeQuietly(pooled.physical);
+            }
+            for (int i = 0; i < missing; i++) {
+                try {
+                    PooledConnection pooled = open();
+                    lock.lock();
+                    try {
+                        if (closed) {
+                            totalConnections--;
+                            closeQuietly(pooled.physical);
+                        } else {
+                            idle.addLast(pooled);
+                            returned.signal();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (SQLException | RuntimeException exception) {
+                    // open() already gave the slot back; try again on the next pass, a long running
+                    // server needs this thread to outlive a misconfigured or unreachable database
+                    break;
+                }
+            }
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException interrupted) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isClosed(Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // nothing else to do with something we are throwing away
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool plus the bookkeeping for the current borrow.
+     */
+    private class PooledConnection {
+        final Connection physical;
+        long lastUsed = System.currentTimeMillis();
+        long borrowedAt;
+        Throwable borrowSite;
+        boolean leakReported;
+        boolean autoCommit = true; // the physical connection's auto-commit mode
+        boolean transactionOpen; // whether a rollback is needed to end the current transaction
+
+        // least recently used first; only touched by the current borrower
+        final LinkedHashMap<String, PreparedStatement> statementCache =
+                new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Takes a statement for the given SQL out of the cache, or prepares a new one. A statement that is
+         * taken out stays out until it is closed, so two open statements never share one physical statement.
+         */
+        PreparedStatement checkoutStatement(String sql) throws SQLException {
+            PreparedStatement statement = statementCache.remove(sql);
+            if (statement != null) {
+                statementCacheHits.increment();
+                return statement;
+            }
+            statementCacheMisses.increment();
+            return physical.prepareStatement(sql);
+        }
+
+        /**
+         * Puts a closed statement back in the cache, closing the least recently used one if the cache is full.
+         * Its result set is closed and its per-statement settings are reset, so the next user starts clean.
+         * A statement that was switched to streaming is closed instead, since an unread streaming result
+         * would block the connection.
+         */
+        void returnStatement(String sql, PreparedStatement statement) {
+            try {
+                if (statementCache.containsKey(sql) || statement.getFetchSize() == Integer.MIN_VALUE) {
+                    statement.close();
+                    return;
+                }
+                ResultSet resultSet = statement.getResultSet();
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                statement.clearParameters();
+                statement.clearWarnings();
+                statement.setFetchSize(0);
+                statement.setMaxRows(0);
+                statement.setQueryTimeout(0);
+                statementCache.put(sql, statement);
+            } catch (SQLException se) {
+                closeQuietly(statement);
+                return;
+            }
+
+            if (statementCache.size() > statementCacheSize) {
+                Iterator<Map.Entry<String, PreparedStatement>> leastRecentlyUsed = statementCache.entrySet().iterator();
+                closeQuietly(leastRecentlyUsed.next().getValue());
+                leastRecentlyUsed.remove();
+            }
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+    }
+
+    /**
+     * The connection the borrower actually sees. Each borrow gets its own handle so closing a handle
+     * twice, or using one after it was closed, can't affect whoever borrows the connection next.
+     *
+     * Every handle starts in auto-commit mode, but a change of mode is only sent to the server before the next
+     * call that depends on it, so a transactional command borrowing a connection the last one left with auto-commit
+     * off pays nothing for switching it back and forth. The handle and its statements also track whether a
+     * transaction is open, so commit and rollback with nothing to end, and the rollback when the connection is
+     * returned, cost nothing. Every statement is wrapped for that, since executing a statement prepared before the
+     * last commit starts a new transaction without going through the handle.
+     */
+    private class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final List<Statement> statements = new ArrayList<Statement>();
+        private boolean handleClosed;
+        private boolean autoCommit = true;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!handleClosed) {
+                    handleClosed = true;
+                    release(pooled, statements);
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return handleClosed || pooled.physical.isClosed();
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled" + pooled.physical;
+            } else if (handleClosed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean) args[0];
+                // turning auto-commit on commits, and an open statement could run in the old mode
+                if ((autoCommit && pooled.transactionOpen) || hasOpenStatements()) {
+                    applyAutoCommit();
+                }
+                return null;
+            } else if ((name.equals("commit") || name.equals("rollback")) && (args == null || args.length == 0)
+                    && !autoCommit && !pooled.transactionOpen) {
+                return null;
+            }
+
+            applyAutoCommit();
+            boolean endsTransaction = (name.equals("commit") || name.equals("rollback")) && (args == null || args.length == 0);
+            if (!pooled.autoCommit && !endsTransaction) {
+                // conservatively, anything done with auto-commit off may be part of a transaction
+                pooled.transactionOpen = true;
+            }
+
+            if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0) {
+                String sql = (String) args[0];
+                PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+                        PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                        new CachedStatement(pooled, (Connection) proxy, sql, pooled.checkoutStatement(sql)));
+                track(statement);
+                return statement;
+            }
+
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (endsTransaction) {
+                    pooled.transactionOpen = false;
+                }
+                if (result instanceof Statement) {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                    result = Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { method.getReturnType() },
+                            new MeteredStatement(pooled, (Connection) proxy, sql, (Statement) result));
+                    track((Statement) result);
+                } else if (ROUND_TRIPS.contains(name)) {
+                    Metrics.recordRoundTrip();
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void applyAutoCommit() throws SQLException {
+            if (pooled.autoCommit != autoCommit) {
+                pooled.physical.setAutoCommit(autoCommit);
+                Metrics.recordRoundTrip();
+                pooled.autoCommit = autoCommit;
+                pooled.transactionOpen = !autoCommit;
+            }
+        }
+
+        private boolean hasOpenStatements() {
+            statements.removeIf(ConnectionPool::isClosed);
+            return !statements.isEmpty();
+        }
+
+        private void track(Statement statement) {
+            // a handle kept for a whole script opens many statements, so forget the ones already closed
+            if (statements.size() >= 64) {
+                statements.removeIf(ConnectionPool::isClosed);
+            }
+            statements.add(statement);
+        }
+    }
+
+    /**
+     * A statement handed out by the pool, wrapped so its executions are reported to Metrics and the SlowQueryLog,
+     * and mark a transaction open when auto-commit is off.
+     * It keeps a reference to each bind value it is given, which the caller already allocated, so a slow
+     * statement can be logged with its binds without costing fast statements anything extra.
+     */
+    private static class MeteredStatement implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection connection;
+        final String sql; // null for a plain Statement
+        final Statement physical;
+        private Object[] binds;
+        private int bindCount;
+
+        MeteredStatement(PooledConnection pooled, Connection connection, String sql, Statement physical) {
+            this.pooled = pooled;
+            this.connection = connection;
+            this.sql = sql;
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getConnection")) {
+                return connection;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Metered" + physical;
+            }
+            return invokeStatement(method, args);
+        }
+
+        /**
+         * Calls a method of the physical statement, timing the ones that execute SQL.
+         */
+        Object invokeStatement(Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            } else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && SlowQueryLog.isEnabled()) {
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters") && binds != null) {
+                Arrays.fill(binds, 0, bindCount, null);
+                bindCount = 0;
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            String text = sql;
+            if (text == null) {
+                text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "(batch)";
+            }
+
+            if (!pooled.autoCommit) {
+                // the server starts a transaction even if this was prepared before the last commit
+                pooled.transactionOpen = true;
+            }
+
+            long startTime = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                recordExecution(text, System.nanoTime() - startTime, null);
+                throw e.getCause();
+            }
+            SlowQueryLog.Entry slowQuery = recordExecution(text, System.nanoTime() - startTime, result);
+
+            if (result instanceof ResultSet) {
+                result = Metrics.countRows((ResultSet) result, text, slowQuery);
+            }
+            return result;
+        }
+
+        private SlowQueryLog.Entry recordExecution(String text, long nanos, Object result) {
+            Metrics.recordStatement(text, nanos);
+            if (!SlowQueryLog.isSlow(nanos)) {
+                return null;
+            }
+
+            long rows = -1; // not known yet for a query, the rows are counted as they are read
+            if (result instanceof Number) {
+                rows = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(count, 0);
+                }
+            }
+            return SlowQueryLog.record(text, binds, bindCount, nanos, rows);
+        }
+
+        private void bind(int index, Object value) {
+            if (index < 1) {
+                return;
+            }
+            if (binds == null) {
+                binds = new Object[Math.max(8, index)];
+            } else if (index > binds.length) {
+                binds = Arrays.copyOf(binds, Math.max(index, binds.length * 2));
+            }
+            binds[index - 1] = value;
+            bindCount = Math.max(bindCount, index);
+        }
+    }
+
+    /**
+     * A prepared statement borrowed from a connection's statement cache. Closing it puts the physical
+     * statement back in the cache instead of closing it.
+     */
+    private class CachedStatement extends MeteredStatement {
+        private boolean statementClosed;
+
+        CachedStatement(PooledConnection pooled, Connection connection, String sql, PreparedStatement physical) {
+            super(pooled, connection, sql, physical);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!statementClosed) {
+                    statementClosed = true;
+                    pooled.returnStatement(sql, (PreparedStatement) physical);
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return statementClosed || physical.isClosed();
+            } else if (name.equals("getConnection")) {
+                return connection;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Cached" + physical;
+            } else if (statementClosed) {
+                throw new SQLException("Statement has already been closed");
+            }
+
+            return invokeStatement(method, args);
+        }
+    }
+}
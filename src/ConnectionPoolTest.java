@@ -0,0 +1,141 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks how the connection pool ends transactions, against a fake connection that records the calls that reach
+ * it, so no database is needed:
+ *
+ *   java -cp src ConnectionPoolTest
+ *
+ * Prints each case and exits with status 1 if any of them fails.
+ */
+public class ConnectionPoolTest {
+
+    private static final List<String> calls = new ArrayList<String>();
+    private static int failures;
+
+    public static void main(String[] args) throws SQLException {
+        ConnectionPool pool = new ConnectionPool(ConnectionPoolTest::fakeConnection, 0, 1, 60000, 1000, 0, 60000, 1, 10);
+
+        // a statement prepared before a commit and executed again after it starts a new transaction
+        try (Connection connection = pool.borrow()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE a")) {
+                statement.executeUpdate();
+                connection.commit();
+                calls.clear();
+                statement.executeUpdate();
+                connection.commit();
+            }
+        }
+        check("prepare, commit, re-execute, commit", "executeUpdate", "commit");
+
+        try (Connection connection = pool.borrow()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE a")) {
+                statement.executeUpdate();
+                connection.commit();
+                calls.clear();
+                statement.executeUpdate();
+            }
+        }
+        check("prepare, commit, re-execute, return", "executeUpdate", "rollback");
+
+        try (Connection connection = pool.borrow()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE a");
+                connection.commit();
+                calls.clear();
+                statement.executeUpdate("UPDATE a");
+                connection.commit();
+            }
+        }
+        check("plain statement, commit, re-execute, commit", "executeUpdate", "commit");
+
+        // nothing to end: no commit, rollback or auto-commit change reaches the server
+        try (Connection connection = pool.borrow()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE a")) {
+                statement.executeUpdate();
+            }
+            connection.commit();
+            calls.clear();
+            connection.commit();
+            connection.rollback();
+        }
+        check("commit and rollback after a commit, return");
+
+        pool.close();
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares the calls that reached the fake connection and its statements with the expected ones, then forgets them.
+     */
+    private static void check(String name, String... expected) {
+        boolean passed = calls.equals(Arrays.asList(expected));
+        System.out.println((passed ? "ok      " : "FAILED  ") + name + (passed ? "" : ": expected "
+                + Arrays.toString(expected) + ", got " + calls));
+        if (!passed) {
+            failures++;
+        }
+        calls.clear();
+    }
+
+    private static Connection fakeConnection() {
+        return (Connection) fake(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isValid":
+                    return true;
+                case "isClosed":
+                case "getAutoCommit":
+                    return false;
+                case "prepareStatement":
+                case "createStatement":
+                    return fakeStatement(method.getReturnType());
+                case "commit":
+                case "rollback":
+                    calls.add(method.getName());
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static Object fakeStatement(Class<?> type) {
+        boolean[] closed = { false };
+        return fake(type, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    closed[0] = true;
+                    return null;
+                case "isClosed":
+                    return closed[0];
+                case "executeUpdate":
+                    calls.add(method.getName());
+                    return 1;
+                case "getFetchSize":
+                case "getMaxRows":
+                case "getQueryTimeout":
+                    return 0;
+                default:
+                    return method.getReturnType() == boolean.class ? false : null;
+            }
+        });
+    }
+
+    private static Object fake(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(ConnectionPoolTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+}
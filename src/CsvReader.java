@@ -0,0 +1,82 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a comma separated file one record at a time, so imports never hold the whole file in memory.
+ * Fields can be wrapped in double quotes to include commas, and a doubled quote ("") inside a quoted
+ * field is read as one quote. Each record has to be on a single line. Blank lines are skipped.
+ */
+public class CsvReader implements Closeable {
+
+    private final BufferedReader reader;
+    private final StringBuilder field = new StringBuilder();
+    private int lineNumber;
+
+    /**
+     * @param reader where the records are read from
+     */
+    public CsvReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 1 << 16);
+    }
+
+    /**
+     * Reads the next record.
+     * @return the fields of the record with surrounding whitespace removed, or null at the end of the file
+     * @throws IOException
+     */
+    public List<String> readRecord() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.trim().isEmpty());
+
+        List<String> fields = new ArrayList<String>();
+        boolean quoted = false;
+        field.setLength(0);
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * @return the line number of the record that was read last, starting at 1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,429 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills the database with a made up university for load testing:
+ *
+ *   java -cp src:src/libs/mysql-connector-java-5.1.47.jar DataGenerator [--students 50000] [--sections 2000]
+ *        [--grades 5000000] [--seed 1]
+ *
+ * The data is skewed the way a real one is. Course popularity follows a Zipf distribution, so intro courses have
+ * many sections and a few sections have thousands of students while most have a few dozen. Students take 1 to 6
+ * sections, most of them 3 or 4. Each section has 2 to 4 weighted categories and a varying number of assignments,
+ * so the total number of grades comes out near --grades. Scores depend on the ability of the student and the
+ * difficulty of the assignment, and about 3% of the grades are left out as not yet graded. GradeTotals and
+ * Categories.total_points are filled in as well, so the gradebooks see the same data as the grades.
+ *
+ * The rows are inserted with multi-row INSERT statements of ROWS_PER_STATEMENT rows each, and each statement
+ * commits on its own. The ids are assigned here starting after the highest id of each table, and the section
+ * numbers start after the highest one in Classes, so the generator can be run again to add more data, but not
+ * while anything else is inserting.
+ */
+public class DataGenerator {
+
+    private static final int ROWS_PER_STATEMENT = 1000;
+    private static final String[] DEPARTMENTS = { "CS", "MATH", "PH", "ENG", "BIO", "CHEM", "HIST", "ECON", "PSYC", "ART" };
+    private static final String[] TERMS = { "Fa16", "Sp17", "Fa17", "Sp18", "Fa18", "Sp19", "Fa19", "Sp20" };
+    private static final String[] CATEGORY_NAMES = { "Homework", "Quizzes", "Labs", "Projects", "Exams" };
+    private static final int[] CATEGORY_POINTS = { 10, 20, 25, 50, 100 };
+    private static final double[] COURSE_LOAD = { 0.05, 0.10, 0.25, 0.35, 0.20, 0.05 }; // chance of taking 1..6 sections
+    private static final double MISSING_GRADE_RATE = 0.03;
+
+    private static Random random;
+
+    public static void main(String[] args) throws SQLException {
+        int students = 50000;
+        int sections = 2000;
+        long grades = 5000000;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--students")) {
+                students = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--sections")) {
+                sections = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--grades")) {
+                grades = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                System.out.println("Usage: DataGenerator [--students N] [--sections N] [--grades N] [--seed N]");
+                return;
+            }
+        }
+        random = new Random(seed);
+
+        long startTime = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = Database.getDatabaseConnection();
+            // the generated rows are consistent, checking them row by row only slows the load down
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET unique_checks = 0, foreign_key_checks = 0");
+            }
+            generate(connection, students, sections, grades);
+        } catch (SQLException sqlException) {
+            System.out.println("Failed to execute query");
+            System.out.println(sqlException.getMessage());
+        } finally {
+            try {
+                if (connection != null) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET unique_checks = 1, foreign_key_checks = 1");
+                    }
+                    connection.close();
+                }
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+            Database.shutdown();
+        }
+        System.out.printf("Done in %.1f seconds%n", (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static void generate(Connection connection, int studentCount, int sectionCount, long gradeTarget)
+            throws SQLException {
+        // courses: one per ten sections, the most popular courses get the most sections
+        int courseCount = Math.max(1, sectionCount / 10);
+        double[] coursePopularity = zipf(courseCount, 1.0);
+        String[] courses = new String[courseCount];
+        for (int c = 0; c < courseCount; c++) {
+            courses[c] = DEPARTMENTS[c % DEPARTMENTS.length] + (101 + c / DEPARTMENTS.length);
+        }
+
+        int nextClassId = nextId(connection, "class_id", "Classes");
+        int sectionBase = nextId(connection, "section_num", "Classes") - 1;
+        Section[] sections = new Section[sectionCount];
+        Map<String, Integer> sectionsPerSlot = new HashMap<String, Integer>();
+        try (MultiRowInsert insert = new MultiRowInsert(connection,
+                "INSERT INTO Classes (class_id, course_num, term, section_num, description) VALUES ", 5)) {
+            for (int s = 0; s < sectionCount; s++) {
+                // the first section of every course, then the rest by popularity
+                int course = s < courseCount ? s : sample(coursePopularity);
+                String term = TERMS[random.nextInt(TERMS.length)];
+                int number = sectionsPerSlot.merge(courses[course] + " " + term, 1, Integer::sum);
+                sections[s] = new Section(nextClassId + s, course);
+                insert.add(sections[s].classId, courses[course], term, sectionBase + number,
+                        "Generated section of " + courses[course]);
+            }
+        }
+        System.out.printf("Inserted %d classes of %d courses%n", sectionCount, courseCount);
+
+        // students and their sections, bigger courses get more students
+        double[] sectionPopularity = new double[sectionCount];
+        double[] courseWeight = new double[courseCount];
+        for (int c = 0; c < courseCount; c++) {
+            courseWeight[c] = coursePopularity[c] - (c == 0 ? 0 : coursePopularity[c - 1]);
+        }
+        for (int s = 0; s < sectionCount; s++) {
+            sectionPopularity[s] = (s == 0 ? 0 : sectionPopularity[s - 1]) + courseWeight[sections[s].course];
+        }
+        double[] courseLoad = cumulative(COURSE_LOAD);
+
+        int nextStudentId = nextId(connection, "student_id", "Students");
+        float[] ability = new float[studentCount];
+        long enrollmentCount = 0;
+        try (MultiRowInsert insert = new MultiRowInsert(connection,
+                "INSERT INTO Students (student_id, username, name) VALUES ", 3)) {
+            for (int student = 0; student < studentCount; student++) {
+                int studentId = nextStudentId + student;
+                ability[student] = (float) Math.min(1, Math.max(0.3, 0.8 + random.nextGaussian() * 0.12));
+                insert.add(studentId, "student" + studentId, "Student " + studentId);
+
+                int load = Math.min(sectionCount, sample(courseLoad) + 1);
+                int[] taken = new int[load];
+                for (int k = 0; k < load; k++) {
+                    int section;
+                    do {
+                        section = sample(sectionPopularity);
+                    } while (contains(taken, k, section));
+                    taken[k] = section;
+                    sections[section].students.add(student);
+                }
+                enrollmentCount += load;
+            }
+        }
+        System.out.printf("Inserted %d students%n", studentCount);
+
+        try (MultiRowInsert insert = new MultiRowInsert(connection,
+                "INSERT INTO Enrollments (student_id, class_id) VALUES ", 2)) {
+            for (Section section : sections) {
+                for (int student : section.students) {
+                    insert.add(nextStudentId + student, section.classId);
+                }
+            }
+        }
+        System.out.printf("Inserted %d enrollments%n", enrollmentCount);
+
+        // categories and assignments, with enough assignments per section on average to reach the grade target
+        double averageAssignments = Math.max(2, gradeTarget / (double) Math.max(1, enrollmentCount) / (1 - MISSING_GRADE_RATE));
+        int nextCategoryId = nextId(connection, "category_id", "Categories");
+        int nextAssignmentId = nextId(connection, "assignment_id", "Assignments");
+        int categoryCount = 0;
+        int assignmentCount = 0;
+        try (MultiRowInsert categoryInsert = new MultiRowInsert(connection,
+                "INSERT INTO Categories (category_id, class_id, name, weight, total_points) VALUES ", 5);
+             MultiRowInsert assignmentInsert = new MultiRowInsert(connection,
+                "INSERT INTO Assignments (assignment_id, category_id, name, description, point_val) VALUES ", 5)) {
+            for (Section section : sections) {
+                int[] chosen = chooseCategories();
+                float[] weights = chooseWeights(chosen.length);
+                int assignments = Math.max(chosen.length,
+                        (int) Math.round(averageAssignments * (0.5 + random.nextDouble())));
+
+                // at least one assignment per category, the rest spread evenly
+                section.categoryIds = new int[chosen.length];
+                section.assignmentIds = new int[assignments];
+                section.assignmentCategory = new int[assignments];
+                section.assignmentPoints = new int[assignments];
+                section.assignmentDifficulty = new float[assignments];
+                int[] totalPoints = new int[chosen.length];
+                int[] perCategory = new int[chosen.length];
+                for (int a = 0; a < assignments; a++) {
+                    int category = a < chosen.length ? a : random.nextInt(chosen.length);
+                    section.assignmentIds[a] = nextAssignmentId++;
+                    section.assignmentCategory[a] = category;
+                    section.assignmentPoints[a] = CATEGORY_POINTS[chosen[category]];
+                    section.assignmentDifficulty[a] = (float) (random.nextGaussian() * 0.08);
+                    totalPoints[category] += section.assignmentPoints[a];
+                    perCategory[category]++;
+                    assignmentInsert.add(section.assignmentIds[a], nextCategoryId + category,
+                            CATEGORY_NAMES[chosen[category]] + " " + perCategory[category],
+                            "Generated assignment", section.assignmentPoints[a]);
+                }
+                categoryCount += chosen.length;
+                assignmentCount += assignments;
+                for (int category = 0; category < chosen.length; category++) {
+                    section.categoryIds[category] = nextCategoryId++;
+                    categoryInsert.add(section.categoryIds[category], section.classId, CATEGORY_NAMES[chosen[category]],
+                            weights[category], totalPoints[category]);
+                }
+            }
+        }
+        System.out.printf("Inserted %d categories and %d assignments%n", categoryCount, assignmentCount);
+
+        // grades, and the running totals of each student in each category of the section
+        long gradeCount = 0;
+        try (MultiRowInsert gradeInsert = new MultiRowInsert(connection,
+                "INSERT INTO Grades (student_id, assignment_id, score) VALUES ", 3);
+             MultiRowInsert totalInsert = new MultiRowInsert(connection,
+                "INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points) VALUES ", 4)) {
+            for (Section section : sections) {
+                float[] scoreTotal = new float[section.categoryIds.length];
+                int[] gradedPoints = new int[section.categoryIds.length];
+                for (int student : section.students) {
+                    Arrays.fill(scoreTotal, 0);
+                    Arrays.fill(gradedPoints, 0);
+                    for (int a = 0; a < section.assignmentIds.length; a++) {
+                        if (random.nextDouble() < MISSING_GRADE_RATE) {
+                            continue;
+                        }
+                        int points = section.assignmentPoints[a];
+                        double fraction = ability[student] - section.assignmentDifficulty[a] + random.nextGaussian() * 0.08;
+                        float score = Math.round(Math.min(1, Math.max(0, fraction)) * points * 2) / 2f;
+                        gradeInsert.add(nextStudentId + student, section.assignmentIds[a], score);
+                        scoreTotal[section.assignmentCategory[a]] += score;
+                        gradedPoints[section.assignmentCategory[a]] += points;
+                        gradeCount++;
+                    }
+                    for (int category = 0; category < section.categoryIds.length; category++) {
+                        if (gradedPoints[category] > 0) {
+                            totalInsert.add(nextStudentId + student, section.categoryIds[category],
+                                    scoreTotal[category], gradedPoints[category]);
+                        }
+                    }
+                }
+                section.students = null; // done with the section, let the memory go
+            }
+        }
+        System.out.printf("Inserted %d grades%n", gradeCount);
+    }
+
+    /**
+     * @return the highest value of a column plus one, or 1 if the table is empty
+     */
+    private static int nextId(Connection connection, String column, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) + 1 FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * @return the cumulative weights of ranks 1 to n under a Zipf distribution with exponent s
+     */
+    private static double[] zipf(int n, double s) {
+        double[] weights = new double[n];
+        for (int rank = 0; rank < n; rank++) {
+            weights[rank] = 1 / Math.pow(rank + 1, s);
+        }
+        return cumulative(weights);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Picks an index with probability proportional to its weight.
+     * @param cumulative the running sums of the weights
+     */
+    private static int sample(double[] cumulative) {
+        double point = random.nextDouble() * cumulative[cumulative.length - 1];
+        int index = Arrays.binarySearch(cumulative, point);
+        return Math.min(cumulative.length - 1, index < 0 ? -index - 1 : index + 1);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 2 to 4 distinct indexes into CATEGORY_NAMES, almost always including homework and exams
+     */
+    private static int[] chooseCategories() {
+        List<Integer> chosen = new ArrayList<Integer>();
+        for (int category = 0; category < CATEGORY_NAMES.length; category++) {
+            boolean common = CATEGORY_NAMES[category].equals("Homework") || CATEGORY_NAMES[category].equals("Exams");
+            if (random.nextDouble() < (common ? 0.9 : 0.3)) {
+                chosen.add(category);
+            }
+        }
+        while (chosen.size() < 2) {
+            int category = random.nextInt(CATEGORY_NAMES.length);
+            if (!chosen.contains(category)) {
+                chosen.add(category);
+            }
+        }
+        while (chosen.size() > 4) {
+            chosen.remove(random.nextInt(chosen.size()));
+        }
+        return chosen.stream().sorted().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return n weights in steps of 0.05 that add up to 1
+     */
+    private static float[] chooseWeights(int n) {
+        int[] steps = new int[n];
+        Arrays.fill(steps, 1);
+        for (int step = n; step < 20; step++) {
+            steps[random.nextInt(n)]++;
+        }
+        float[] weights = new float[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = steps[i] / 20f;
+        }
+        return weights;
+    }
+
+    /**
+     * A generated class and what is needed to grade its students.
+     */
+    private static class Section {
+        final int classId;
+        final int course;
+        List<Integer> students = new ArrayList<Integer>();
+        int[] categoryIds;
+        int[] assignmentIds;
+        int[] assignmentCategory; // index into categoryIds
+        int[] assignmentPoints;
+        float[] assignmentDifficulty;
+
+        Section(int classId, int course) {
+            this.classId = classId;
+            this.course = course;
+        }
+    }
+
+    /**
+     * Collects rows and inserts them ROWS_PER_STATEMENT at a time with one multi-row INSERT. Closing it inserts
+     * the rows that are left.
+     */
+    private static class MultiRowInsert implements AutoCloseable {
+        private final Connection connection;
+        private final String insert;
+        private final int columns;
+        private final Object[] values;
+        private int rows;
+        private PreparedStatement fullStatement;
+
+        /**
+         * @param insert the INSERT up to and including VALUES
+         * @param columns how many values each row has
+         */
+        MultiRowInsert(Connection connection, String insert, int columns) {
+            this.connection = connection;
+            this.insert = insert;
+            this.columns = columns;
+            this.values = new Object[ROWS_PER_STATEMENT * columns];
+        }
+
+        void add(Object... row) throws SQLException {
+            System.arraycopy(row, 0, values, rows * columns, columns);
+            if (++rows == ROWS_PER_STATEMENT) {
+                if (fullStatement == null) {
+                    fullStatement = connection.prepareStatement(sql(ROWS_PER_STATEMENT));
+                }
+                execute(fullStatement);
+            }
+        }
+
+        private String sql(int rowCount) {
+            StringBuilder sql = new StringBuilder(insert);
+            StringBuilder row = new StringBuilder("(");
+            for (int i = 0; i < columns; i++) {
+                row.append(i == 0 ? "?" : ", ?");
+            }
+            row.append(')');
+            for (int i = 0; i < rowCount; i++) {
+                sql.append(i == 0 ? "" : ", ").append(row);
+            }
+            return sql.toString();
+        }
+
+        private void execute(PreparedStatement preparedStatement) throws SQLException {
+            for (int i = 0; i < rows * columns; i++) {
+                preparedStatement.setObject(i + 1, values[i]);
+            }
+            preparedStatement.executeUpdate();
+            Arrays.fill(values, null);
+            rows = 0;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (rows > 0) {
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(sql(rows))) {
+                        execute(preparedStatement);
+                    }
+                }
+            } finally {
+                if (fullStatement != null) {
+                    fullStatement.close();
+                }
+            }
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.PrintStream;
 import java.sql.*;
 
 /**
@@ -6,13 +7,70 @@ import java.sql.*;
  */
 public class Database {
 
+    private static ConnectionPool connectionPool;
+
     /**
-     * Creates a connection to the database using environment variables. The environment
-     * variables must be set prior to running the program.
+     * Borrows a connection from the connection pool. Closing the connection gives it back to the pool,
+     * so callers should keep closing connections in their finally blocks like before.
      * @return java.sql.Connection
      * @throws SQLException
      */
     public static Connection getDatabaseConnection() throws SQLException {
+        return getConnectionPool().borrow();
+    }
+
+    /**
+     * Returns the connection pool, creating it the first time it is needed. The pool can be tuned with
+     * the optional CS410_POOL_* environment variables.
+     * @return the shared connection pool
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new ConnectionPool(
+                    Database::openDatabaseConnection,
+                    getEnvInt("CS410_POOL_MIN_SIZE", 1),
+                    getEnvInt("CS410_POOL_MAX_SIZE", 10),
+                    getEnvInt("CS410_POOL_IDLE_TIMEOUT_MS", 300000),
+                    getEnvInt("CS410_POOL_BORROW_TIMEOUT_MS", 30000),
+                    getEnvInt("CS410_POOL_LEAK_THRESHOLD_MS", 60000),
+                    getEnvInt("CS410_POOL_VALIDATION_INTERVAL_MS", 5000),
+                    getEnvInt("CS410_POOL_VALIDATION_TIMEOUT_S", 2),
+                    getEnvInt("CS410_STATEMENT_CACHE_SIZE", 50));
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Closes the connection pool and all of its idle connections.
+     */
+    public static synchronized void shutdown() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
+    /**
+     * Reads an optional integer setting from the environment.
+     * @param name the environment variable
+     * @param defaultValue used when the variable isn't set
+     * @return the setting
+     */
+    static int getEnvInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Creates a new physical connection to the database using environment variables. The environment
+     * variables must be set prior to running the program.
+     * @return java.sql.Connection
+     * @throws SQLException
+     */
+    static Connection openDatabaseConnection() throws SQLException {
         int databasePort = Integer.parseInt(System.getenv("CS410_PORT"));
         String databaseHost = System.getenv("CS410_HOST");
         String databaseUsername = System.getenv("CS410_USERNAME");
@@ -24,13 +82,24 @@ public class Database {
                 databasePort,
                 databaseName);
 
+        // Let the driver send a JDBC batch of inserts as one multi-row INSERT instead of one statement per row
+        if (getEnvInt("CS410_REWRITE_BATCHED_STATEMENTS", 1) != 0) {
+            databaseURL += "&rewriteBatchedStatements=true";
+        }
+
+        // Optionally let the server parse each statement once and keep it, instead of the driver
+        // sending the full SQL text on every execute
+        if (getEnvInt("CS410_SERVER_PREPARED_STATEMENTS", 0) != 0) {
+            databaseURL += "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048";
+        }
+
         try {
 
             return DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
         } catch (SQLException sqlException) {
-            System.out.printf("SQLException was thrown while trying to connection to database: %s%n", databaseURL);
-            System.out.println(sqlException.getMessage());
-            throw sqlException;
+            // the caller prints it to its own output
+            throw new SQLException("SQLException was thrown while trying to connection to database: " + databaseURL + "\n"
+                    + sqlException.getMessage(), sqlException.getSQLState(), sqlException.getErrorCode(), sqlException);
         }
 
     }
@@ -38,16 +107,17 @@ public class Database {
     /**
      * Tests the connection to your database. If your connection fails, throws an
      * SQL exception.
+     * @param out where the settings and the result are printed
      * @throws SQLException
      * 
      */
-    public static void testConnection() {
-        System.out.println("Attempting to connect to MySQL database using:");
-        System.out.printf("CS410_HOST: %s%n", System.getenv("CS410_HOST"));
-        System.out.printf("CS410_PORT: %s%n", System.getenv("CS410_PORT"));
-        System.out.printf("CS410_USERNAME: %s%n", System.getenv("CS410_USERNAME"));
-        System.out.printf("CS410_PASSWORD: %s%n", System.getenv("CS410_PASSWORD"));
-        System.out.printf("CS410_DATABASE: %s%n", System.getenv("CS410_DATABASE"));
+    public static void testConnection(PrintStream out) {
+        out.println("Attempting to connect to MySQL database using:");
+        out.printf("CS410_HOST: %s%n", System.getenv("CS410_HOST"));
+        out.printf("CS410_PORT: %s%n", System.getenv("CS410_PORT"));
+        out.printf("CS410_USERNAME: %s%n", System.getenv("CS410_USERNAME"));
+        out.printf("CS410_PASSWORD: %s%n", System.getenv("CS410_PASSWORD"));
+        out.printf("CS410_DATABASE: %s%n", System.getenv("CS410_DATABASE"));
 
         Connection connection = null;
         ResultSet resultSet = null;
@@ -58,9 +128,10 @@ public class Database {
             String sql = "SELECT VERSION();";
             resultSet = sqlStatement.executeQuery(sql);
             resultSet.next();
-            System.out.printf("Connected SUCCESS! Database Version: %s%n", resultSet.getString(1));
+            out.printf("Connected SUCCESS! Database Version: %s%n", resultSet.getString(1));
         } catch (SQLException sql){
-            System.out.println("Failed to connect to database! Please make sure your Environment variables are set!");
+            out.println("Failed to connect to database! Please make sure your Environment variables are set!");
+            out.println(sql.getMessage());
         } finally {
             try { resultSet.close(); } catch (Exception e) { /* ignored */ }
             try { connection.close(); } catch (Exception e) { /* ignored */ }
@@ -1,9 +1,27 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * This classes represents a grade manager system, where things such as students, classes, and grades exist.
@@ -12,53 +30,96 @@ import java.util.regex.Pattern;
  * with a concept called the 'current active class' which is essentally just a reference to the most recent class returned 
  * by a 'select-class' query. Further, for the majority of the queries to work, we have to make sure we select a class first. 
  * It should be inferred that all of these methods are able to throw SQLExceptions if the query goes wrong.
+ * Every command takes the Session of the grader running it, which holds their current active class and where their
+ * output goes, so one process can run commands for many graders at once.
  */
 public class GradeManager {
 	
-	
-	public static int currentActiveClass  = -1;
+
+	/** What lines naming no command are recorded as in Metrics. */
+	private static final String UNKNOWN_COMMAND = "<unknown>";
+
+	/** Rows written per JDBC batch by the import commands when no batch size is given. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
 
     /**
-     * Parses arguments up from the command line and returns them as a list.
-     * @param command gets added tk list
-     * @return the list of command line arguments.
+     * How a command ended, returned by the commands that the HTTP server and the load driver run, since the lines a
+     * command prints don't say whether it worked.
      */
-    public static List<String> parseArguments(String command) {
-        List<String> commandArguments = new ArrayList<String>();
-        Matcher m = Pattern.compile("([^\"]\\S*|\".+?\")\\s*").matcher(command);
-        while (m.find()) commandArguments.add(m.group(1).replace("\"", ""));
-        return commandArguments;
+    public enum Result {
+        OK,
+        /** the student, assignment or class the command needed doesn't exist */
+        NOT_FOUND,
+        /** the command collided with another transaction, like a deadlock or a duplicate key, and can be retried */
+        CONFLICT,
+        /** a query failed */
+        FAILED;
+
+        /**
+         * @return CONFLICT for a failed transaction or a broken constraint, FAILED for anything else
+         */
+        static Result of(SQLException sqlException) {
+            String sqlState = sqlException.getSQLState();
+            boolean conflict = sqlState != null && (sqlState.startsWith("40") || sqlState.startsWith("23"));
+            return conflict || sqlException.getErrorCode() == 1205 ? CONFLICT : FAILED; // 1205: lock wait timeout
+        }
     }
-    
+
+	/**
+	 * Weighted gradebook of one class, the class_id is the only parameter. Reads the running totals in
+	 * Categories.total_points and GradeTotals, so it touches one row per student and category.
+	 * Categories without any points are left out of the weighted grade, and weighted_percentage is NULL
+	 * when the remaining categories have no weight.
+	 */
+	private static final String WEIGHTED_GRADEBOOK_QUERY =
+			"SELECT s.username, s.student_id, s.name AS student_name, " +
+			"COALESCE(SUM(gt.score_total), 0) AS total_score, " +
+			"COALESCE(SUM(c.total_points), 0) AS total_points, " +
+			"SUM(CASE WHEN c.total_points > 0 THEN c.weight * COALESCE(gt.score_total, 0) / c.total_points END) / " +
+			"SUM(CASE WHEN c.total_points > 0 THEN c.weight END) * 100 AS weighted_percentage " +
+			"FROM Enrollments e " +
+			"JOIN Students s ON s.student_id = e.student_id " +
+			"LEFT JOIN Categories c ON c.class_id = e.class_id " +
+			"LEFT JOIN GradeTotals gt ON gt.student_id = e.student_id AND gt.category_id = c.category_id " +
+			"WHERE e.class_id = ? " +
+			"GROUP BY s.student_id, s.username, s.name " +
+			"ORDER BY s.username";
 
     /**
      * Creates a new class. 
+     * @param session the session running the command
      * @param courseNum course number of the class
      * @param term term of the class
      * @param sectionNum section number of the class
      * @param description description of the class
      */
-    public static void createNewClass(String courseNum, String term, int sectionNum, String description) {
+    public static void createNewClass(Session session, String courseNum, String term, int sectionNum, String description) {
         Connection connection = null;
         Statement sqlStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
             sqlStatement = connection.createStatement();
 
             String insertQuery = String.format(
                     "INSERT INTO Classes (course_num, term, section_num, description) VALUES ('%s', '%s', %d, '%s')",
                     courseNum, term, sectionNum, description);
 
-            sqlStatement.executeUpdate(insertQuery);
+            sqlStatement.executeUpdate(insertQuery, Statement.RETURN_GENERATED_KEYS);
+
+            // Drop anything cached under the new class_id
+            try (ResultSet generatedKeys = sqlStatement.getGeneratedKeys()) {
+                if (generatedKeys.next())
+                    ClassMetadataCache.invalidate(generatedKeys.getInt(1));
+            }
             
-            System.out.println(String.format("Class with course number: %s was created", courseNum));
+            session.out.println(String.format("Class with course number: %s was created", courseNum));
 
 
         
         } catch (SQLException sqlException) {
-            System.out.println("Failed to create a new class");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to create a new class");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -77,13 +138,14 @@ public class GradeManager {
     
     /**
      * Lists all the classes with the number of students in each classs.
+     * @param session the session running the command
      */
-    public static void listClassesWithStudents() {
+    public static void listClassesWithStudents(Session session) {
         Connection connection = null;
         Statement sqlStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
             sqlStatement = connection.createStatement();
 
             String query = "SELECT " +
@@ -100,18 +162,18 @@ public class GradeManager {
             ResultSet resultSet = sqlStatement.executeQuery(query);
 
             while (resultSet.next()) {
-                System.out.println("Class ID: " + resultSet.getInt("class_id"));
-                System.out.println("Course Number: " + resultSet.getString("course_num"));
-                System.out.println("Term: " + resultSet.getString("term"));
-                System.out.println("Section Number: " + resultSet.getInt("section_num"));
-                System.out.println("Description: " + resultSet.getString("description"));
-                System.out.println("Number of Students: " + resultSet.getInt("num_students"));
-                System.out.println("-".repeat(80));
+                session.out.println("Class ID: " + resultSet.getInt("class_id"));
+                session.out.println("Course Number: " + resultSet.getString("course_num"));
+                session.out.println("Term: " + resultSet.getString("term"));
+                session.out.println("Section Number: " + resultSet.getInt("section_num"));
+                session.out.println("Description: " + resultSet.getString("description"));
+                session.out.println("Number of Students: " + resultSet.getInt("num_students"));
+                session.out.println("-".repeat(80));
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to list classes with students");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to list classes with students");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -129,27 +191,26 @@ public class GradeManager {
     }
     
     /**
-     * Selects a class from most recent term given a course number. If there are multiple, 
+     * Selects a class from most recent term given a course number. If there are multiple sections in that term, 
      * it prints there was an error as there are multiple classes with that course number.
+     * The most recent term comes from the indexed term_key column, so this reads at most two index entries.
+     * @param session the session running the command
      * @param courseNum course number of the class
+     * @return OK, NOT_FOUND if no class or more than one matches, or why the query failed
      */
-    public static void selectClass(String courseNum) {
+    public static Result selectClass(Session session, String courseNum) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
+        Result result = Result.NOT_FOUND;
 
         try {
-            connection = Database.getDatabaseConnection(); 
+            connection = session.getConnection(); 
 
-            String query = "SELECT class_id, term, section_num " +
+            String query = "SELECT class_id, term, section_num, term_key " +
                            "FROM Classes " +
                            "WHERE course_num = ? " +
-                           "ORDER BY CAST(SUBSTRING(term, 3) AS UNSIGNED) DESC, " +
-                           "         CASE SUBSTRING(term, 1, 2) " +
-                           "           WHEN 'Fa' THEN 1 " +
-                           "           WHEN 'Sp' THEN 2 " +
-                           "           ELSE 3 " +
-                           "         END " +
+                           "ORDER BY term_key DESC, section_num DESC " +
                            "LIMIT 2"; 
 
             preparedStatement = connection.prepareStatement(query);
@@ -160,37 +221,38 @@ public class GradeManager {
 
             // Process the result set
             if (resultSet.next()) {
+                int classId = resultSet.getInt("class_id");
+                String term = resultSet.getString("term");
+                int sectionNum = resultSet.getInt("section_num");
+                int termKey = resultSet.getInt("term_key");
 
-            	//multiple results 
-                if (resultSet.next()) {
-                    System.out.println("Error: Multiple sections found for course number " + courseNum + " in the most recent term.");
+            	//multiple results in the most recent term
+                if (resultSet.next() && resultSet.getInt("term_key") == termKey) {
+                    session.out.println("Error: Multiple sections found for course number " + courseNum + " in the most recent term.");
 
                 //one result
                 }else {
-                	resultSet.previous(); //move resultSet back to first class
-            	
-            	   int classId = resultSet.getInt("class_id");
-                   String term = resultSet.getString("term");
-                   int sectionNum = resultSet.getInt("section_num");
-
-                   System.out.println("Selected Class:");
-                   System.out.println("Class ID: " + classId);
-                   System.out.println("Course Number: " + courseNum);
-                   System.out.println("Term: " + term);
-                   System.out.println("Section Number: " + sectionNum);
+                   session.out.println("Selected Class:");
+                   session.out.println("Class ID: " + classId);
+                   session.out.println("Course Number: " + courseNum);
+                   session.out.println("Term: " + term);
+                   session.out.println("Section Number: " + sectionNum);
                    
-                   currentActiveClass = classId; //update current active class
+                   ClassMetadataCache.get(connection, classId); //load the class metadata for the commands that follow
+                   session.setActiveClass(classId); //update current active class
+                   result = Result.OK;
                 }
 
               
             } else {
                 // No section found for the most recent term
-                System.out.println("Error: No section found for course " + courseNum + " in the most recent term.");
+                session.out.println("Error: No section found for course " + courseNum + " in the most recent term.");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            result = Result.of(sqlException);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -204,38 +266,44 @@ public class GradeManager {
                 se.printStackTrace();
             }
         }
+        return result;
     }
     
        
     /**
-     * Selects the most recent class up to the given given term, uses the given course number to do so. If there are multiple, 
-     * it prints there was an error as there are multiple classes with that course number.
+     * Selects the most recent class up to the given given term, uses the given course number to do so. If there are multiple
+     * sections in that term, it prints there was an error as there are multiple classes with that course number.
+     * @param session the session running the command
      * @param courseNum course number of the class
      * @param targetTerm term to go up to
+     * @return OK, NOT_FOUND if no class or more than one matches, or why the query failed
      */
-    public static void selectClassByTerm(String courseNum, String targetTerm) {
+    public static Result selectClassByTerm(Session session, String courseNum, String targetTerm) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
+        Result result = Result.NOT_FOUND;
 
         try {
-            connection = Database.getDatabaseConnection(); 
+            int targetTermKey;
+            try {
+                targetTermKey = termKey(targetTerm);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                session.out.println("Error: Invalid term " + targetTerm + ", expected something like Sp20");
+                return Result.NOT_FOUND;
+            }
 
-            String query = "SELECT class_id, term, section_num " +
+            connection = session.getConnection(); 
+
+            String query = "SELECT class_id, term, section_num, term_key " +
                            "FROM Classes " +
-                           "WHERE course_num = ? AND term <= ? " +
-                           "ORDER BY CAST(SUBSTRING(term, 3) AS UNSIGNED) DESC, " +
-                           "         CASE SUBSTRING(term, 1, 2) " +
-                           "           WHEN 'Fa' THEN 1 " +
-                           "           WHEN 'Sp' THEN 2 " +
-                           "           ELSE 3 " +
-                           "         END, " +
-                           "         section_num DESC " +
+                           "WHERE course_num = ? AND term_key <= ? " +
+                           "ORDER BY term_key DESC, section_num DESC " +
                            "LIMIT 2";  
 
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, courseNum);
-            preparedStatement.setString(2, targetTerm);
+            preparedStatement.setInt(2, targetTermKey);
 
             resultSet = preparedStatement.executeQuery();
 
@@ -243,28 +311,32 @@ public class GradeManager {
                 int classId = resultSet.getInt("class_id");
                 String term = resultSet.getString("term");
                 int sectionNum = resultSet.getInt("section_num");
-
-                // Check if there is only one result
-                if (!resultSet.next()) {
-                    System.out.println("Selected Class:");
-                    System.out.println("Class ID: " + classId);
-                    System.out.println("Course Number: " + courseNum);
-                    System.out.println("Term: " + term);
-                    System.out.println("Section Number: " + sectionNum);
+                int termKey = resultSet.getInt("term_key");
+
+                // Check if there is only one result in that term
+                if (!resultSet.next() || resultSet.getInt("term_key") != termKey) {
+                    session.out.println("Selected Class:");
+                    session.out.println("Class ID: " + classId);
+                    session.out.println("Course Number: " + courseNum);
+                    session.out.println("Term: " + term);
+                    session.out.println("Section Number: " + sectionNum);
                     
-                    currentActiveClass = classId; //update current active class
+                    ClassMetadataCache.get(connection, classId); //load the class metadata for the commands that follow
+                    session.setActiveClass(classId); //update current active class
+                    result = Result.OK;
                 } else {
                     // Multiple classes found for the specified course and term
-                    System.out.println("Error: Multiple classes found for course " + courseNum + " up to term " + targetTerm + ".");
+                    session.out.println("Error: Multiple classes found for course " + courseNum + " up to term " + targetTerm + ".");
                 }
             } else {
                 // No section found for the specified course and term
-                System.out.println("Error: No section found for course " + courseNum + " up to term " + targetTerm + ".");
+                session.out.println("Error: No section found for course " + courseNum + " up to term " + targetTerm + ".");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            result = Result.of(sqlException);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -278,23 +350,39 @@ public class GradeManager {
                 se.printStackTrace();
             }
         }
+        return result;
+    }
+
+    /**
+     * Computes the sortable key of a term the same way as the term_key column of Classes:
+     * two digit year * 10 + season, where Fa = 3, Sp = 2 and anything else = 1.
+     * @param term a term like Sp20
+     * @return the term's key, e.g. 202 for Sp20
+     */
+    static int termKey(String term) {
+        int year = Integer.parseInt(term.substring(2).trim());
+        int season = term.regionMatches(true, 0, "Fa", 0, 2) ? 3 : term.regionMatches(true, 0, "Sp", 0, 2) ? 2 : 1;
+        return year * 10 + season;
     }
     
     
     /**
      * Selects the class given a course number, term, and a section number.
      * Shouldn't be any duplicates in this method.
+     * @param session the session running the command
      * @param courseNum the course number for the class
      * @param targetTerm the term for the class
      * @param sectionNum the section number for the class
+     * @return OK, NOT_FOUND if no class or more than one matches, or why the query failed
      */
-    public static void selectClassByTermAndSection(String courseNum, String targetTerm, int sectionNum) {
+    public static Result selectClassByTermAndSection(Session session, String courseNum, String targetTerm, int sectionNum) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
+        Result result = Result.NOT_FOUND;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             String query = "SELECT class_id, term, section_num " +
                            "FROM Classes " +
@@ -312,22 +400,25 @@ public class GradeManager {
                 String term = resultSet.getString("term");
                 int selectedSectionNum = resultSet.getInt("section_num");
 
-                System.out.println("Selected Class:");
-                System.out.println("Class ID: " + classId);
-                System.out.println("Course Number: " + courseNum);
-                System.out.println("Term: " + term);
-                System.out.println("Section Number: " + selectedSectionNum);
+                session.out.println("Selected Class:");
+                session.out.println("Class ID: " + classId);
+                session.out.println("Course Number: " + courseNum);
+                session.out.println("Term: " + term);
+                session.out.println("Section Number: " + selectedSectionNum);
                 
-                currentActiveClass = classId;
+                ClassMetadataCache.get(connection, classId); //load the class metadata for the commands that follow
+                session.setActiveClass(classId);
+                result = Result.OK;
             } else {
                 // No class found for the specified course, term, and section
-                System.out.println("Error: No class found for course " + courseNum +
+                session.out.println("Error: No class found for course " + courseNum +
                         " in term " + targetTerm + " with section number " + sectionNum + ".");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            result = Result.of(sqlException);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -341,19 +432,21 @@ public class GradeManager {
                 se.printStackTrace();
             }
         }
+        return result;
     }
     
     /**
      * Selects the current active class if it has been set.
+     * @param session the session running the command
      * @param classId
      */
-    public static void selectCurrentActiveClass(int classId) {
+    public static void selectCurrentActiveClass(Session session, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             String query = "SELECT * " +
                            "FROM Classes " +
@@ -370,20 +463,20 @@ public class GradeManager {
                 int sectionNum = resultSet.getInt("section_num");
                 String description = resultSet.getString("description");
 
-                System.out.println("Selected Class:");
-                System.out.println("Class ID: " + classId);
-                System.out.println("Course Number: " + courseNum);
-                System.out.println("Term: " + term);
-                System.out.println("Section Number: " + sectionNum);
-                System.out.println("Description: " + description);
+                session.out.println("Selected Class:");
+                session.out.println("Class ID: " + classId);
+                session.out.println("Course Number: " + courseNum);
+                session.out.println("Term: " + term);
+                session.out.println("Section Number: " + sectionNum);
+                session.out.println("Description: " + description);
             } else {
                 // No class found for the specified class_id
-                System.out.println("Error: No class found for class_id " + classId + ".");
+                session.out.println("Error: No class found for class_id " + classId + ".");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -401,69 +494,41 @@ public class GradeManager {
     
     
     /**
-     * Shows the categories that exist for the current active class.
+     * Shows the categories that exist for the current active class. Served from the class metadata cache.
+     * @param session the session running the command
      * @param classId the given class_id from current active class that will uniquely identify a class
      */
-    public static void showCategoriesForActiveClass(int classId) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
+    public static void showCategoriesForActiveClass(Session session, int classId) {
         try {
-            connection = Database.getDatabaseConnection();
-
-            String query = "SELECT category_id, class_id, name, weight " +
-                           "FROM Categories " +
-                           "WHERE class_id = ?";
-
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setInt(1, classId);
-
-            resultSet = preparedStatement.executeQuery();
-
-            while (resultSet.next()) {
-                int categoryId = resultSet.getInt("category_id");
-                int retrievedClassId = resultSet.getInt("class_id");
-                String name = resultSet.getString("name");
-                float weight = resultSet.getFloat("weight");
-
-                System.out.println("Category ID: " + categoryId);
-                System.out.println("Class ID: " + retrievedClassId);
-                System.out.println("Name: " + name);
-                System.out.println("Weight: " + weight);
-                System.out.println("-".repeat(80));
+            ClassMetadataCache.ClassMetadata metadata = ClassMetadataCache.get(session, classId);
+
+            for (ClassMetadataCache.Category category : metadata.categories) {
+                session.out.println("Category ID: " + category.categoryId);
+                session.out.println("Class ID: " + classId);
+                session.out.println("Name: " + category.name);
+                session.out.println("Weight: " + category.weight);
+                session.out.println("-".repeat(80));
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-
-        } finally {
-            try {
-                if (resultSet != null)
-                    resultSet.close();
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
-            }
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
         }
     }
     
     /**
      * Adds a category to the current active class.
+     * @param session the session running the command
      * @param class_id the class_id for the current active class
      * @param categoryName name of the category
      * @param weight the weight of the category
      */
-    public static void addCategory(int class_id, String categoryName, float weight) {
+    public static void addCategory(Session session, int class_id, String categoryName, float weight) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection(); 
+            connection = session.getConnection(); 
 
             String query = "INSERT INTO Categories (class_id, name, weight) VALUES (?, ?, ?)";
 
@@ -477,14 +542,15 @@ public class GradeManager {
             int rowsAffected = preparedStatement.executeUpdate();
 
             if (rowsAffected > 0) {
-                System.out.println("Category added successfully");
+                ClassMetadataCache.invalidate(class_id);
+                session.out.println("Category added successfully");
             } else {
-                System.out.println("Failed to add category");
+                session.out.println("Failed to add category");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -499,114 +565,89 @@ public class GradeManager {
     }
     
     /**
-     * Shows the assignments for the current active class.
+     * Shows the assignments for the current active class. Served from the class metadata cache.
+     * @param session the session running the command
      * @param classId the class_id of the current active class
      */
-    public static void showAssignmentsForClass(int classId) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
+    public static void showAssignmentsForClass(Session session, int classId) {
         try {
-            connection = Database.getDatabaseConnection();
-
-            String query = "SELECT c.name AS category_name, a.name AS assignment_name, a.point_val " +
-                           "FROM Assignments a " +
-                           "JOIN Categories c ON a.category_id = c.category_id " +
-                           "WHERE c.class_id = ? " +
-                           "ORDER BY c.name, a.name";
-
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setInt(1, classId);
-
-            resultSet = preparedStatement.executeQuery();
+            ClassMetadataCache.ClassMetadata metadata = ClassMetadataCache.get(session, classId);
 
             String currentCategory = null;
 
-            while (resultSet.next()) {
-                String category = resultSet.getString("category_name");
-                String assignmentName = resultSet.getString("assignment_name");
-                int pointValue = resultSet.getInt("point_val");
-
+            for (ClassMetadataCache.Assignment assignment : metadata.assignments) {
                 // Check if the category has changed
-                if (!category.equals(currentCategory)) {
-                    System.out.println("Category: " + category);
-                    currentCategory = category;
+                if (!assignment.categoryName.equals(currentCategory)) {
+                    session.out.println("Category: " + assignment.categoryName);
+                    currentCategory = assignment.categoryName;
                 }
 
-                System.out.println("  Assignment: " + assignmentName);
-                System.out.println("  Point Value: " + pointValue);
-                System.out.println("-".repeat(80));
+                session.out.println("  Assignment: " + assignment.name);
+                session.out.println("  Point Value: " + assignment.pointValue);
+                session.out.println("-".repeat(80));
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-
-        } finally {
-            try {
-                if (resultSet != null)
-                    resultSet.close();
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
-            }
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
         }
     }
     
     /**
      * Add an assignment to the current active class.
+     * @param session the session running the command
      * @param assignmentName the name of the assignment
      * @param categoryName the name of the category
      * @param description the description of the assignment
      * @param points how many points the assignment is worth
      * @param classId the class_id of the current active class
      */
-    public static void addAssignment(String assignmentName, String categoryName, String description, int points, int classId) {
+    public static void addAssignment(Session session, String assignmentName, String categoryName, String description, int points, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
+            connection.setAutoCommit(false);
 
-            // Query to retrieve category_id based on the given category name and class_id
-            String categoryIdQuery = "SELECT category_id FROM Categories WHERE name = ? AND class_id = ?";
-            preparedStatement = connection.prepareStatement(categoryIdQuery);
-            preparedStatement.setString(1, categoryName);
-            preparedStatement.setInt(2, classId);
-            int categoryId;
+            // Find the category_id of the given category name in the class metadata cache
+            ClassMetadataCache.Category category = ClassMetadataCache.get(connection, classId).getCategory(categoryName);
 
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                if (resultSet.next()) {
-                    categoryId = resultSet.getInt("category_id");
-
-                    // Insert new assignment query
-                    String insertQuery = "INSERT INTO Assignments (category_id, name, description, point_val) VALUES (?, ?, ?, ?)";
-                    preparedStatement = connection.prepareStatement(insertQuery);
-                    preparedStatement.setInt(1, categoryId);
-                    preparedStatement.setString(2, assignmentName);
-                    preparedStatement.setString(3, description);
-                    preparedStatement.setInt(4, points);
-
-                    // Keep track of affected rows
-                    int rowsAffected = preparedStatement.executeUpdate();
-
-                    if (rowsAffected > 0) {
-                        System.out.println("Assignment added successfully");
-                    } else {
-                        System.out.println("Failed to add assignment");
+            if (category != null) {
+                // Insert new assignment query
+                String insertQuery = "INSERT INTO Assignments (category_id, name, description, point_val) VALUES (?, ?, ?, ?)";
+                preparedStatement = connection.prepareStatement(insertQuery);
+                preparedStatement.setInt(1, category.categoryId);
+                preparedStatement.setString(2, assignmentName);
+                preparedStatement.setString(3, description);
+                preparedStatement.setInt(4, points);
+
+                // Keep track of affected rows
+                int rowsAffected = preparedStatement.executeUpdate();
+
+                if (rowsAffected > 0) {
+                    // Keep the category's running point total in step
+                    String totalQuery = "UPDATE Categories SET total_points = total_points + ? WHERE category_id = ?";
+                    try (PreparedStatement totalStatement = connection.prepareStatement(totalQuery)) {
+                        totalStatement.setInt(1, points);
+                        totalStatement.setInt(2, category.categoryId);
+                        totalStatement.executeUpdate();
                     }
+                    connection.commit();
+
+                    ClassMetadataCache.invalidate(classId);
+                    session.out.println("Assignment added successfully");
                 } else {
-                    System.out.println("Error: Category not found for the specified class and name.");
+                    session.out.println("Failed to add assignment");
                 }
+            } else {
+                session.out.println("Error: Category not found for the specified class and name.");
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            rollback(connection);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -623,40 +664,35 @@ public class GradeManager {
 
     /**
      * Updates a student's name.
+     * @param session the session running the command
      * @param username the username of the student
      * @param newName the new name of the student
      */
-    public static void updateStudentName(String username, String newName) {
+    public static void updateStudentName(Session session, String username, String newName) {
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             // Check if the student already exists
-            String checkStudentQuery = "SELECT * FROM Students WHERE username = ?";
-            preparedStatement = connection.prepareStatement(checkStudentQuery);
-            preparedStatement.setString(1, username);
-
-            ResultSet resultSet = preparedStatement.executeQuery();
+            StudentCache.Student student = StudentCache.find(connection, username);
 
-            if (resultSet.next()) {
+            if (student != null) {
                 // If the student exists we update their name
-                int studentId = resultSet.getInt("student_id");
-                updateStudentNameById(studentId, newName); //helper method
-                System.out.println("Student name updated successfully");
+                if (updateStudentNameById(session, connection, student.studentId, newName)) //helper method
+                    StudentCache.put(student.studentId, username, newName);
+                session.out.println("Student name updated successfully");
             } else {
-                System.out.println("Error: Student not found with username " + username);
+                session.out.println("Error: Student not found with username " + username);
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            StudentCache.invalidate(username);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
                 if (connection != null)
                     connection.close();
             } catch (SQLException se) {
@@ -666,19 +702,18 @@ public class GradeManager {
     }
     
     /**
-     * Uses a student's ID to update their name.
+     * Uses a student's ID to update their name. Runs on the caller's connection so it is part of
+     * the caller's transaction; the caller updates the student cache once that has committed.
+     * @param session the session running the command
+     * @param connection the connection of the command doing the update
      * @param studentId the student's student_id
      * @param newName their new name
+     * @return whether the name was updated
      */
-    private static void updateStudentNameById(int studentId, String newName) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
-        try {
-            connection = Database.getDatabaseConnection();
+    private static boolean updateStudentNameById(Session session, Connection connection, int studentId, String newName) throws SQLException {
+        String updateQuery = "UPDATE Students SET name = ? WHERE student_id = ?";
 
-            String updateQuery = "UPDATE Students SET name = ? WHERE student_id = ?";
-            preparedStatement = connection.prepareStatement(updateQuery);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(updateQuery)) {
             preparedStatement.setString(1, newName);
             preparedStatement.setInt(2, studentId);
 
@@ -686,73 +721,42 @@ public class GradeManager {
             int rowsAffected = preparedStatement.executeUpdate();
 
             if (rowsAffected > 0) {
-                System.out.println("Student name updated successfully");
-            } else {
-                System.out.println("Failed to update student name");
-            }
-
-        } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-
-        } finally {
-            try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
+                session.out.println("Student name updated successfully");
+                return true;
             }
+            session.out.println("Failed to update student name");
+            return false;
         }
     }
 
     /**
      * Insert a new student.
+     * @param session the session running the command
      * @param username the username of the new student
      * @param name the name of the new student
      */
-    public static void insertNewStudent(String username, String name) {
+    public static void insertNewStudent(Session session, String username, String name) {
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             // Check if the student exists
-            String checkStudentQuery = "SELECT * FROM Students WHERE username = ?";
-            preparedStatement = connection.prepareStatement(checkStudentQuery);
-            preparedStatement.setString(1, username);
-
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                System.out.println("Error: Student already exists with username " + username);
+            if (StudentCache.find(connection, username) != null) {
+                session.out.println("Error: Student already exists with username " + username);
             } else {
                 // If the student doesn't exist, insert the new student
-                String insertQuery = "INSERT INTO Students (username, name) VALUES (?, ?)";
-                preparedStatement = connection.prepareStatement(insertQuery);
-                preparedStatement.setString(1, username);
-                preparedStatement.setString(2, name);
-
-                // Keep track of rows affected
-                int rowsAffected = preparedStatement.executeUpdate();
-
-                if (rowsAffected > 0) {
-                    System.out.println("New student added successfully");
-                } else {
-                    System.out.println("Failed to add new student");
-                }
+                int studentId = insertStudent(session, connection, username, name);
+                if (studentId != -1)
+                    StudentCache.put(studentId, username, name);
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
                 if (connection != null)
                     connection.close();
             } catch (SQLException se) {
@@ -760,61 +764,100 @@ public class GradeManager {
             }
         }
     }
+
+    /**
+     * Inserts a student row on the caller's connection. The caller adds it to the student cache once its
+     * transaction has committed.
+     * @param session the session running the command
+     * @param connection the connection of the command doing the insert
+     * @param username the username of the new student
+     * @param name the name of the new student
+     * @return the generated student_id, or -1 if nothing was inserted
+     */
+    private static int insertStudent(Session session, Connection connection, String username, String name) throws SQLException {
+        String insertQuery = "INSERT INTO Students (username, name) VALUES (?, ?)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, username);
+            preparedStatement.setString(2, name);
+
+            // Keep track of rows affected
+            int rowsAffected = preparedStatement.executeUpdate();
+
+            if (rowsAffected > 0) {
+                session.out.println("New student added successfully");
+                try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        return generatedKeys.getInt(1);
+                    }
+                }
+            } else {
+                session.out.println("Failed to add new student");
+            }
+            return -1;
+        }
+    }
     
     /**
-     * Adds a student to the current active class.
+     * Adds a student to the current active class. Creating or renaming the student and enrolling them
+     * happen in one transaction, so either all of it is saved or none of it is.
+     * @param session the session running the command
      * @param username the username of the student
      * @param studentId the student's ID
      * @param name the name of the student
      * @param classId the class_id of the current active class
      */
-    public static void addStudent(String username, int studentId, String name, int classId) {
+    public static void addStudent(Session session, String username, int studentId, String name, int classId) {
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection(); 
+            connection = session.getConnection(); 
+            connection.setAutoCommit(false);
 
             // Check if the student exists
-            String checkStudentQuery = "SELECT * FROM Students WHERE username = ?";
-            preparedStatement = connection.prepareStatement(checkStudentQuery);
-            preparedStatement.setString(1, username);
+            StudentCache.Student student = StudentCache.find(connection, username);
+            int writtenStudentId = -1; // set when the student is inserted or renamed, cached once that commits
 
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
+            if (student != null) {
                 // If student exists, update their name, then enroll them in class
-                int existingStudentId = resultSet.getInt("student_id");
-                String existingName = resultSet.getString("name");
+                int existingStudentId = student.studentId;
+                String existingName = student.name;
 
                 // If student_id matches, enroll them 
                 if (existingStudentId == studentId) {
-                    enrollStudentInClass(existingStudentId, classId);
+                    enrollStudentInClass(session, connection, existingStudentId, classId);
                 } else {
                     // If name matches, enroll them in the class
                     if (existingName.equals(name)) {
-                        enrollStudentInClass(existingStudentId, classId);
+                        enrollStudentInClass(session, connection, existingStudentId, classId);
                     } else {
                         // If name doesn't match, update the name
-                        updateStudentNameById(existingStudentId, name);
-                        System.out.println("Warning: Name updated for existing student with username " + username);
-                        enrollStudentInClass(existingStudentId, classId);
+                        if (updateStudentNameById(session, connection, existingStudentId, name))
+                            writtenStudentId = existingStudentId;
+                        session.out.println("Warning: Name updated for existing student with username " + username);
+                        enrollStudentInClass(session, connection, existingStudentId, classId);
                     }
                 }
             } else {
-                // If student doesn't exist, insert a new student, then enroll them
-                insertNewStudent(username, name);
-                enrollStudentInClass(studentId, classId);
+                // If student doesn't exist, insert a new student, then enroll them using the id the database gave them
+                int newStudentId = insertStudent(session, connection, username, name);
+                if (newStudentId != -1) {
+                    enrollStudentInClass(session, connection, newStudentId, classId);
+                    writtenStudentId = newStudentId;
+                }
             }
 
+            connection.commit();
+            if (writtenStudentId != -1)
+                StudentCache.put(writtenStudentId, username, name);
+
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            rollback(connection);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
                 if (connection != null)
                     connection.close();
             } catch (SQLException se) {
@@ -824,19 +867,16 @@ public class GradeManager {
     }
 
     /**
-     * Enrolls a student in the current active class.
+     * Enrolls a student in the current active class on the caller's connection.
+     * @param session the session running the command
+     * @param connection the connection of the command doing the enrollment
      * @param studentId the id of the student 
      * @param classId the class_id of the current active class
      */
-    private static void enrollStudentInClass(int studentId, int classId) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
-        try {
-            connection = Database.getDatabaseConnection(); 
+    private static void enrollStudentInClass(Session session, Connection connection, int studentId, int classId) throws SQLException {
+        String insertQuery = "INSERT INTO Enrollments (student_id, class_id) VALUES (?, ?)";
 
-            String insertQuery = "INSERT INTO Enrollments (student_id, class_id) VALUES (?, ?)";
-            preparedStatement = connection.prepareStatement(insertQuery);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(insertQuery)) {
             preparedStatement.setInt(1, studentId);
             preparedStatement.setInt(2, classId);
 
@@ -844,62 +884,41 @@ public class GradeManager {
             int rowsAffected = preparedStatement.executeUpdate();
 
             if (rowsAffected > 0) {
-                System.out.println("Student enrolled in class successfully");
+                session.out.println("Student enrolled in class successfully");
             } else {
-                System.out.println("Failed to enroll student in class");
-            }
-
-        } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-
-        } finally {
-            try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
+                session.out.println("Failed to enroll student in class");
             }
         }
     }
     
     /**
      * Adds a student to current active class by their username.
+     * @param session the session running the command
      * @param username the username of the student
      * @param classId the class_id of the current active class
      */
-    public static void addStudentByUsername(String username, int classId) {
+    public static void addStudentByUsername(Session session, String username, int classId) {
         Connection connection = null;
-        PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             // Check if student exists
-            String checkStudentQuery = "SELECT * FROM Students WHERE username = ?";
-            preparedStatement = connection.prepareStatement(checkStudentQuery);
-            preparedStatement.setString(1, username);
-
-            ResultSet resultSet = preparedStatement.executeQuery();
+            StudentCache.Student student = StudentCache.find(connection, username);
 
-            if (resultSet.next()) {
+            if (student != null) {
                 // If student exists, enroll them
-                int studentId = resultSet.getInt("student_id");
-                enrollStudentInClass(studentId, classId);
+                enrollStudentInClass(session, connection, student.studentId, classId);
             } else {
-                System.out.println("Error: Student not found with username " + username);
+                session.out.println("Error: Student not found with username " + username);
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
                 if (connection != null)
                     connection.close();
             } catch (SQLException se) {
@@ -910,14 +929,15 @@ public class GradeManager {
 
     /**
      * Shows the students enrolled in the current active class.
+     * @param session the session running the command
      * @param classId the class_id of the current active class
      */
-    public static void showStudentsInClass(int classId) {
+    public static void showStudentsInClass(Session session, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection(); 
+            connection = session.getConnection(); 
 
             String query = "SELECT s.username, s.name FROM Students s " +
                            "JOIN Enrollments e ON s.student_id = e.student_id " +
@@ -927,16 +947,16 @@ public class GradeManager {
 
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            System.out.println("Students in the Class " + classId + ":");
+            session.out.println("Students in the Class " + classId + ":");
             while (resultSet.next()) {
                 String username = resultSet.getString("username");
                 String name = resultSet.getString("name");
-                System.out.println("Username: " + username + ", Name: " + name);
+                session.out.println("Username: " + username + ", Name: " + name);
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -952,15 +972,16 @@ public class GradeManager {
     
     /**
      * Shows the students in the current active class with the given string in their name.
+     * @param session the session running the command
      * @param searchString the string to look for
      * @param classId the class_id of the current active class
      */
-    public static void showStudentsWithStringInClass(String searchString, int classId) {
+    public static void showStudentsWithStringInClass(Session session, String searchString, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
+            connection = session.getConnection();
 
             String query = "SELECT s.username, s.name FROM Students s " +
                            "JOIN Enrollments e ON s.student_id = e.student_id " +
@@ -972,16 +993,16 @@ public class GradeManager {
 
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            System.out.println("Students with '" + searchString + "' in their name or username in the Class " + classId + ":");
+            session.out.println("Students with '" + searchString + "' in their name or username in the Class " + classId + ":");
             while (resultSet.next()) {
                 String username = resultSet.getString("username");
                 String name = resultSet.getString("name");
-                System.out.println("Username: " + username + ", Name: " + name);
+                session.out.println("Username: " + username + ", Name: " + name);
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -996,69 +1017,62 @@ public class GradeManager {
     }
     
     /**
-     * Grade an assignment.
+     * Grade an assignment. The lookups and the write share one connection and one transaction.
+     * @param session the session running the command
      * @param assignmentName the name of the assignment
      * @param username the username of the student
      * @param grade the grade they will get
      * @param classId the class_id for the current active class
+     * @return whether the grade was saved
      */
-    public static void gradeAssignment(String assignmentName, String username, float grade, int classId) {
+    public static Result gradeAssignment(Session session, String assignmentName, String username, float grade, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        Result result = Result.NOT_FOUND;
 
         try {
-            connection = Database.getDatabaseConnection();
-
-            // Check if assignment exists
-            String assignmentQuery = "SELECT a.assignment_id, a.point_val FROM Assignments a " +
-                                     "JOIN Categories c ON a.category_id = c.category_id " +
-                                     "JOIN Classes cl ON c.class_id = cl.class_id " +
-                                     "WHERE a.name = ? AND cl.class_id = ?";
-            preparedStatement = connection.prepareStatement(assignmentQuery);
-            preparedStatement.setString(1, assignmentName);
-            preparedStatement.setInt(2, classId);
-
-            ResultSet assignmentResultSet = preparedStatement.executeQuery();
+            connection = session.getConnection();
+            connection.setAutoCommit(false);
 
-            if (assignmentResultSet.next()) {
-                int assignmentId = assignmentResultSet.getInt("assignment_id");
-                float maxPoints = assignmentResultSet.getFloat("point_val");
+            // Check if assignment exists, using the class metadata cache
+            ClassMetadataCache.Assignment assignment = ClassMetadataCache.get(connection, classId).getAssignment(assignmentName);
 
-                // Check student exists
-                String studentQuery = "SELECT student_id FROM Students WHERE username = ?";
-                preparedStatement = connection.prepareStatement(studentQuery);
-                preparedStatement.setString(1, username);
+            if (assignment != null) {
+                // Check student exists, using the student cache
+                StudentCache.Student student = StudentCache.find(connection, username);
 
-                ResultSet studentResultSet = preparedStatement.executeQuery();
+                if (student != null) {
+                    int studentId = student.studentId;
 
-                if (studentResultSet.next()) {
-                    int studentId = studentResultSet.getInt("student_id");
-
-                    // Does student have a grade for assignment
-                    String existingGradeQuery = "SELECT * FROM Grades WHERE student_id = ? AND assignment_id = ?";
+                    // Does student have a grade for assignment, locked so the running totals stay consistent
+                    String existingGradeQuery = "SELECT score FROM Grades WHERE student_id = ? AND assignment_id = ? FOR UPDATE";
                     preparedStatement = connection.prepareStatement(existingGradeQuery);
                     preparedStatement.setInt(1, studentId);
-                    preparedStatement.setInt(2, assignmentId);
+                    preparedStatement.setInt(2, assignment.assignmentId);
 
                     ResultSet existingGradeResultSet = preparedStatement.executeQuery();
 
                     if (existingGradeResultSet.next()) {
                         // Update the grade
-                        updateGrade(studentId, assignmentId, grade, maxPoints);
+                        result = updateGrade(session, connection, studentId, assignment, grade, existingGradeResultSet.getFloat("score"));
                     } else {
                         // Insert a grade
-                        insertGrade(studentId, assignmentId, grade, maxPoints);
+                        result = insertGrade(session, connection, studentId, assignment, grade);
                     }
                 } else {
-                    System.out.println("Error: Student not found having the username " + username);
+                    session.out.println("Error: Student not found having the username " + username);
                 }
             } else {
-                System.out.println("Error: Assignment not found having the name " + assignmentName + " in the Class " + classId);
+                session.out.println("Error: Assignment not found having the name " + assignmentName + " in the Class " + classId);
             }
 
+            connection.commit();
+
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            rollback(connection);
+            result = Result.of(sqlException);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -1070,141 +1084,573 @@ public class GradeManager {
                 se.printStackTrace();
             }
         }
+        return result;
     }
 
     /**
-     * Updates a grade for a student.
+     * Updates a grade for a student on the caller's connection, and moves the student's running total
+     * for the assignment's category by the difference.
+     * @param session the session running the command
+     * @param connection the connection of the command doing the grading
      * @param studentId the student_id of the student
-     * @param assignmentId the assignment_id of the assignment
+     * @param assignment the assignment being graded
      * @param grade the updated grade for the assignment
-     * @param maxPoints max amount of points for the assignment
+     * @param oldScore the score the student had before
+     * @return OK, or FAILED if no grade was updated
      */
-    private static void updateGrade(int studentId, int assignmentId, float grade, float maxPoints) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
-        try {
-            connection = Database.getDatabaseConnection();
-
-            // Update the existing grade
-            String updateGradeQuery = "UPDATE Grades SET score = ? WHERE student_id = ? AND assignment_id = ?";
-            preparedStatement = connection.prepareStatement(updateGradeQuery);
-            
-            // Grade can't be larger than the maximum
-            if (grade > maxPoints) {
-                System.out.println("Warning: Grade exceeds maximum points (" + maxPoints + ")");
-                preparedStatement.setFloat(1, maxPoints);
-            } else {
-                preparedStatement.setFloat(1, grade);
-            }
+    private static Result updateGrade(Session session, Connection connection, int studentId, ClassMetadataCache.Assignment assignment, float grade, float oldScore) throws SQLException {
+        // Update the existing grade
+        String updateGradeQuery = "UPDATE Grades SET score = ? WHERE student_id = ? AND assignment_id = ?";
+
+        // Grade can't be larger than the maximum
+        float score = grade;
+        if (grade > assignment.pointValue) {
+            session.out.println("Warning: Grade exceeds maximum points (" + (float) assignment.pointValue + ")");
+            score = assignment.pointValue;
+        }
 
+        try (PreparedStatement preparedStatement = connection.prepareStatement(updateGradeQuery)) {
+            preparedStatement.setFloat(1, score);
             preparedStatement.setInt(2, studentId);
-            preparedStatement.setInt(3, assignmentId);
+            preparedStatement.setInt(3, assignment.assignmentId);
 
             // Keep track of the affected rows
             int rowsAffected = preparedStatement.executeUpdate();
 
             if (rowsAffected > 0) {
-                System.out.println("Grade updated successfully");
-            } else {
-                System.out.println("Failed to update grade");
-            }
-
-        } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-
-        } finally {
-            try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
+                addToGradeTotals(connection, studentId, assignment.categoryId, score - oldScore, 0);
+                session.out.println("Grade updated successfully");
+                return Result.OK;
             }
+            session.out.println("Failed to update grade");
+            return Result.FAILED;
         }
     }
 
     /**
-     * Inserts a new grade.
+     * Inserts a new grade on the caller's connection, and adds it to the student's running total for the
+     * assignment's category.
+     * @param session the session running the command
+     * @param connection the connection of the command doing the grading
      * @param studentId the student_id of the student
-     * @param assignmentId the assignment_id of the assignment
+     * @param assignment the assignment being graded
      * @param grade the new grade for the assignment
-     * @param maxPoints max amount of points for the assignment
+     * @return OK, or FAILED if no grade was inserted
      */
-    private static void insertGrade(int studentId, int assignmentId, float grade, float maxPoints) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
-        try {
-            connection = Database.getDatabaseConnection(); 
-
-            String insertGradeQuery = "INSERT INTO Grades (student_id, assignment_id, score) VALUES (?, ?, ?)";
-            preparedStatement = connection.prepareStatement(insertGradeQuery);
-            
-            // New grade can't be larger than maxPoints
-            if (grade > maxPoints) {
-                System.out.println("Warning: Grade exceeds maximum points (" + maxPoints + ")");
-                preparedStatement.setFloat(3, maxPoints);
-            } else {
-                preparedStatement.setFloat(3, grade);
-            }
+    private static Result insertGrade(Session session, Connection connection, int studentId, ClassMetadataCache.Assignment assignment, float grade) throws SQLException {
+        String insertGradeQuery = "INSERT INTO Grades (student_id, assignment_id, score) VALUES (?, ?, ?)";
+
+        // New grade can't be larger than maxPoints
+        float score = grade;
+        if (grade > assignment.pointValue) {
+            session.out.println("Warning: Grade exceeds maximum points (" + (float) assignment.pointValue + ")");
+            score = assignment.pointValue;
+        }
 
+        try (PreparedStatement preparedStatement = connection.prepareStatement(insertGradeQuery)) {
             preparedStatement.setInt(1, studentId);
-            preparedStatement.setInt(2, assignmentId);
+            preparedStatement.setInt(2, assignment.assignmentId);
+            preparedStatement.setFloat(3, score);
 
             // Keep track of the rows affected
             int rowsAffected = preparedStatement.executeUpdate();
 
             if (rowsAffected > 0) {
-                System.out.println("Grade assigned successfully");
-            } else {
-                System.out.println("Failed to assign grade");
+                addToGradeTotals(connection, studentId, assignment.categoryId, score, assignment.pointValue);
+                session.out.println("Grade assigned successfully");
+                return Result.OK;
             }
+            session.out.println("Failed to assign grade");
+            return Result.FAILED;
+        }
+    }
 
-        } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
-            
-        } finally {
-            try {
-                if (preparedStatement != null)
-                    preparedStatement.close();
-                if (connection != null)
-                    connection.close();
-            } catch (SQLException se) {
-                se.printStackTrace();
+    /**
+     * Adds to a student's running totals for one category in GradeTotals, creating the row if needed.
+     * @param connection the connection of the command whose transaction the change belongs to
+     * @param studentId the student_id of the student
+     * @param categoryId the category_id of the category
+     * @param scoreChange how much the student's total score in the category changes
+     * @param gradedPointsChange how much the points of the student's graded assignments change
+     */
+    private static void addToGradeTotals(Connection connection, int studentId, int categoryId, float scoreChange, int gradedPointsChange) throws SQLException {
+        String upsertQuery = "INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points) VALUES (?, ?, ?, ?) " +
+                             "ON DUPLICATE KEY UPDATE score_total = score_total + VALUES(score_total), " +
+                             "graded_points = graded_points + VALUES(graded_points)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(upsertQuery)) {
+            preparedStatement.setInt(1, studentId);
+            preparedStatement.setInt(2, categoryId);
+            preparedStatement.setFloat(3, scoreChange);
+            preparedStatement.setInt(4, gradedPointsChange);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Recomputes the GradeTotals rows of some students in one class from their grades. Used after bulk
+     * writes, where the old scores aren't known.
+     * @param connection the connection of the command whose transaction the change belongs to
+     * @param studentIds the student_ids of the students
+     * @param classId the class_id of the class
+     */
+    private static void recomputeGradeTotals(Connection connection, Set<Integer> studentIds, int classId) throws SQLException {
+        if (studentIds.isEmpty())
+            return;
+
+        String recomputeQuery = "INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points) " +
+                                "SELECT g.student_id, a.category_id, SUM(g.score), SUM(a.point_val) " +
+                                "FROM Categories c " +
+                                "JOIN Assignments a ON a.category_id = c.category_id " +
+                                "JOIN Grades g ON g.assignment_id = a.assignment_id " +
+                                "WHERE c.class_id = ? AND g.student_id IN (" + placeholders(studentIds.size()) + ") " +
+                                "GROUP BY g.student_id, a.category_id " +
+                                "ON DUPLICATE KEY UPDATE score_total = VALUES(score_total), graded_points = VALUES(graded_points)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(recomputeQuery)) {
+            preparedStatement.setInt(1, classId);
+            int index = 2;
+            for (int studentId : studentIds) {
+                preparedStatement.setInt(index++, studentId);
             }
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Rolls back the transaction of a command that failed part way through.
+     * @param connection the connection of the failed command, may be null
+     */
+    private static void rollback(Connection connection) {
+        if (connection == null)
+            return;
+        try {
+            connection.rollback();
+        } catch (SQLException se) {
+            se.printStackTrace();
         }
     }
     
     /**
-     * Shows the grades for a student with various other info like subtotal for each category, and overall grade, both total and attempted.
-     * @param username the username of the student
+     * Imports grades for the current active class from a CSV file with the columns username, assignment name
+     * and score. A header row starting with "username" is skipped. The file is read in chunks of batchSize rows:
+     * the usernames of a chunk are looked up with one query, the grades are written as one JDBC batch of
+     * INSERT ... ON DUPLICATE KEY UPDATE statements, and the chunk is committed.
+     * @param session the session running the command
+     * @param fileName the CSV file to import
+     * @param batchSize how many grades are written per batch, at least 1
      * @param classId the class_id of the current active class
      */
-    public static void showStudentGrades(String username, int classId) {
+    public static void importGrades(Session session, String fileName, int batchSize, int classId) {
+        if (batchSize < 1) {
+            session.out.println("Error: batch-size must be at least 1. Usage: import-grades file [batch-size:int]");
+            return;
+        }
         Connection connection = null;
         PreparedStatement preparedStatement = null;
+        CsvReader csvReader = null;
+
+        long startTime = System.nanoTime();
+        int imported = 0;
+        int skipped = 0;
+        int capped = 0;
 
         try {
-            connection = Database.getDatabaseConnection();
+            csvReader = new CsvReader(new FileReader(fileName));
+            connection = session.getConnection();
+            connection.setAutoCommit(false);
 
-            String query = "SELECT s.username, s.name AS student_name, " +
-                           "c.name AS category_name, a.name AS assignment_name, " +
-                           "a.point_val AS assignment_points, COALESCE(g.score, 0) AS student_score, " +
-                           "COALESCE((g.score / a.point_val) * 100, 0) AS student_percentage " +
-                           "FROM Students s " +
-                           "JOIN Enrollments e ON s.student_id = e.student_id " +
-                           "JOIN Classes cl ON e.class_id = cl.class_id " +
-                           "JOIN Categories c ON cl.class_id = c.class_id " +
-                           "LEFT JOIN Assignments a ON c.category_id = a.category_id " +
-                           "LEFT JOIN Grades g ON s.student_id = g.student_id AND a.assignment_id = g.assignment_id " +
-                           "WHERE s.username = ? AND cl.class_id = ? " +
-                           "ORDER BY c.category_id, a.assignment_id";
+            // Assignments come from the class metadata cache instead of a lookup per grade
+            ClassMetadataCache.ClassMetadata metadata = ClassMetadataCache.get(connection, classId);
 
-            preparedStatement = connection.prepareStatement(query);
+            String upsertQuery = "INSERT INTO Grades (student_id, assignment_id, score) VALUES (?, ?, ?) " +
+                                 "ON DUPLICATE KEY UPDATE score = VALUES(score)";
+            preparedStatement = connection.prepareStatement(upsertQuery);
+
+            Map<String, Integer> studentIds = new HashMap<String, Integer>(); // username -> student_id, -1 if not found
+            List<List<String>> chunk = new ArrayList<List<String>>(batchSize);
+            List<Integer> chunkLineNumbers = new ArrayList<Integer>(batchSize);
+
+            List<String> record = csvReader.readRecord();
+            if (record != null && record.get(0).equalsIgnoreCase("username")) {
+                record = csvReader.readRecord();
+            }
+
+            while (record != null) {
+                chunk.add(record);
+                chunkLineNumbers.add(csvReader.getLineNumber());
+                record = csvReader.readRecord();
+
+                if (chunk.size() < batchSize && record != null)
+                    continue;
+
+                // Look up all the usernames in this chunk we haven't seen yet with one query
+                Set<String> newUsernames = new HashSet<String>();
+                for (List<String> row : chunk) {
+                    if (row.size() == 3 && !studentIds.containsKey(row.get(0)))
+                        newUsernames.add(row.get(0));
+                }
+                lookupStudentIds(connection, newUsernames, studentIds, true);
+
+                int batched = 0;
+                Set<Integer> gradedStudentIds = new HashSet<Integer>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<String> row = chunk.get(i);
+                    int lineNumber = chunkLineNumbers.get(i);
+
+                    if (row.size() != 3) {
+                        session.out.println("Line " + lineNumber + ": expected username, assignment and score");
+                        continue;
+                    }
+                    ClassMetadataCache.Assignment assignment = metadata.getAssignment(row.get(1));
+                    if (assignment == null) {
+                        session.out.println("Line " + lineNumber + ": Assignment not found having the name " + row.get(1) + " in the Class " + classId);
+                        continue;
+                    }
+                    int studentId = studentIds.get(row.get(0));
+                    if (studentId == -1) {
+                        session.out.println("Line " + lineNumber + ": Student not found having the username " + row.get(0));
+                        continue;
+                    }
+                    float grade;
+                    try {
+                        grade = Float.parseFloat(row.get(2));
+                    } catch (NumberFormatException nfe) {
+                        session.out.println("Line " + lineNumber + ": invalid score " + row.get(2));
+                        continue;
+                    }
+
+                    // Grade can't be larger than the maximum
+                    if (grade > assignment.pointValue) {
+                        grade = assignment.pointValue;
+                        capped++;
+                    }
+
+                    preparedStatement.setInt(1, studentId);
+                    preparedStatement.setInt(2, assignment.assignmentId);
+                    preparedStatement.setFloat(3, grade);
+                    preparedStatement.addBatch();
+                    gradedStudentIds.add(studentId);
+                    batched++;
+                }
+
+                if (batched > 0) {
+                    preparedStatement.executeBatch();
+                    recomputeGradeTotals(connection, gradedStudentIds, classId);
+                }
+                connection.commit();
+
+                imported += batched;
+                skipped += chunk.size() - batched;
+                chunk.clear();
+                chunkLineNumbers.clear();
+            }
+
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            session.out.printf("Imported %d grades (%d skipped, %d capped at maximum points) in %.2f seconds, %.0f rows/sec%n",
+                    imported, skipped, capped, seconds, imported / Math.max(seconds, 1e-9));
+
+        } catch (IOException ioException) {
+            session.out.println("Failed to read " + fileName);
+            session.out.println(ioException.getMessage());
+
+        } catch (SQLException sqlException) {
+            rollback(connection);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+            session.out.println("Imported " + imported + " grades before the failure");
+
+        } finally {
+            try {
+                if (csvReader != null)
+                    csvReader.close();
+            } catch (IOException ioe) {
+            }
+            try {
+                if (preparedStatement != null)
+                    preparedStatement.close();
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Imports a roster from a CSV file with the columns username, name and optionally course number, term and
+     * section number. Rows without a class are enrolled in the current active class. Rows whose class can't be
+     * found are skipped without touching their student. A header row starting with "username" is skipped. Each chunk of batchSize rows is one transaction: the students are upserted as one
+     * batch using the unique username, their ids are looked up with one query, and the enrollments are inserted
+     * as a second batch. Enrollments that already exist are left alone.
+     * @param session the session running the command
+     * @param fileName the CSV file to import
+     * @param batchSize how many rows are written per batch, at least 1
+     * @param classId the class_id of the current active class, -1 if there is none
+     */
+    public static void importRoster(Session session, String fileName, int batchSize, int classId) {
+        if (batchSize < 1) {
+            session.out.println("Error: batch-size must be at least 1. Usage: import-roster file [batch-size:int]");
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement studentStatement = null;
+        PreparedStatement enrollmentStatement = null;
+        CsvReader csvReader = null;
+
+        long startTime = System.nanoTime();
+        int processed = 0;
+        int enrolled = 0;
+        int skipped = 0;
+
+        try {
+            csvReader = new CsvReader(new FileReader(fileName));
+            connection = session.getConnection();
+            connection.setAutoCommit(false);
+
+            String upsertStudentQuery = "INSERT INTO Students (username, name) VALUES (?, ?) " +
+                                        "ON DUPLICATE KEY UPDATE name = VALUES(name)";
+            String enrollQuery = "INSERT IGNORE INTO Enrollments (student_id, class_id) VALUES (?, ?)";
+            studentStatement = connection.prepareStatement(upsertStudentQuery);
+            enrollmentStatement = connection.prepareStatement(enrollQuery);
+
+            Map<String, Integer> studentIds = new HashMap<String, Integer>(); // username -> student_id
+            Map<String, Integer> classIds = null; // "course|term|section" -> class_id, loaded when first needed
+            List<List<String>> chunk = new ArrayList<List<String>>(batchSize);
+            List<Integer> chunkLineNumbers = new ArrayList<Integer>(batchSize);
+
+            List<String> record = csvReader.readRecord();
+            if (record != null && record.get(0).equalsIgnoreCase("username")) {
+                record = csvReader.readRecord();
+            }
+
+            while (record != null) {
+                chunk.add(record);
+                chunkLineNumbers.add(csvReader.getLineNumber());
+                record = csvReader.readRecord();
+
+                if (chunk.size() < batchSize && record != null)
+                    continue;
+
+                // Find the class of every row first, so a row that can't be enrolled doesn't upsert its student
+                List<List<String>> rows = new ArrayList<List<String>>(chunk.size());
+                List<Integer> rowClassIds = new ArrayList<Integer>(chunk.size());
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<String> row = chunk.get(i);
+                    int lineNumber = chunkLineNumbers.get(i);
+
+                    if (row.size() == 5) {
+                        if (classIds == null)
+                            classIds = loadClassIds(connection);
+                        Integer rowClassId = null;
+                        try {
+                            rowClassId = classIds.get(classKey(row.get(2), row.get(3), Integer.parseInt(row.get(4).trim())));
+                        } catch (NumberFormatException nfe) {
+                            // not a section number, so there is no such class
+                        }
+                        if (rowClassId == null) {
+                            session.out.println("Line " + lineNumber + ": No class found for course " + row.get(2) +
+                                    " in term " + row.get(3) + " with section number " + row.get(4) + ".");
+                            continue;
+                        }
+                        rowClassIds.add(rowClassId);
+                    } else if (row.size() == 2) {
+                        if (classId == -1) {
+                            session.out.println("Line " + lineNumber + ": No active class to enroll " + row.get(0) +
+                                    " in. Select a class or give the course number, term and section number.");
+                            continue;
+                        }
+                        rowClassIds.add(classId);
+                    } else {
+                        session.out.println("Line " + lineNumber + ": expected username, name and optionally course number, term and section number");
+                        continue;
+                    }
+                    rows.add(row);
+                }
+
+                // Upsert their students as one batch
+                Set<String> usernames = new HashSet<String>();
+                for (List<String> row : rows) {
+                    studentStatement.setString(1, row.get(0));
+                    studentStatement.setString(2, row.get(1));
+                    studentStatement.addBatch();
+                    if (!studentIds.containsKey(row.get(0)))
+                        usernames.add(row.get(0));
+                }
+                if (!rows.isEmpty()) {
+                    studentStatement.executeBatch();
+                    lookupStudentIds(connection, usernames, studentIds, false);
+                }
+
+                // Then enroll them as a second batch
+                int batched = 0;
+                for (int i = 0; i < rows.size(); i++) {
+                    enrollmentStatement.setInt(1, studentIds.get(rows.get(i).get(0)));
+                    enrollmentStatement.setInt(2, rowClassIds.get(i));
+                    enrollmentStatement.addBatch();
+                    batched++;
+                }
+                if (batched > 0) {
+                    enrollmentStatement.executeBatch();
+                }
+                connection.commit();
+
+                // The upsert may have changed names, keep the student cache in step now that they are visible
+                for (List<String> row : rows) {
+                    StudentCache.put(studentIds.get(row.get(0)), row.get(0), row.get(1));
+                }
+
+                processed += chunk.size();
+                enrolled += batched;
+                skipped += chunk.size() - batched;
+                chunk.clear();
+                chunkLineNumbers.clear();
+
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                session.out.printf("Processed %d rows, %.0f rows/sec%n", processed, processed / Math.max(seconds, 1e-9));
+            }
+
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            session.out.printf("Imported roster of %d rows (%d enrolled, %d skipped) in %.2f seconds, %.0f rows/sec%n",
+                    processed, enrolled, skipped, seconds, processed / Math.max(seconds, 1e-9));
+
+        } catch (IOException ioException) {
+            session.out.println("Failed to read " + fileName);
+            session.out.println(ioException.getMessage());
+
+        } catch (SQLException sqlException) {
+            rollback(connection);
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+            session.out.println("Imported " + processed + " rows before the failure");
+
+        } finally {
+            try {
+                if (csvReader != null)
+                    csvReader.close();
+            } catch (IOException ioe) {
+            }
+            try {
+                if (studentStatement != null)
+                    studentStatement.close();
+                if (enrollmentStatement != null)
+                    enrollmentStatement.close();
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Loads the class_id of every class so roster rows can be matched to their class without a query per row.
+     * @param connection the connection of the command doing the lookup
+     * @return class ids keyed by "course_num|term|section_num"
+     */
+    private static Map<String, Integer> loadClassIds(Connection connection) throws SQLException {
+        Map<String, Integer> classIds = new HashMap<String, Integer>();
+        String query = "SELECT class_id, course_num, term, section_num FROM Classes";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                classIds.put(classKey(resultSet.getString("course_num"), resultSet.getString("term"), resultSet.getInt("section_num")),
+                        resultSet.getInt("class_id"));
+            }
+        }
+        return classIds;
+    }
+
+    /**
+     * @return the key of a class in the map made by loadClassIds
+     */
+    private static String classKey(String courseNum, String term, int sectionNum) {
+        return courseNum + "|" + term + "|" + sectionNum;
+    }
+
+    /**
+     * Looks up the student_id of several usernames, using the student cache and one query for the rest.
+     * @param connection the connection of the command doing the lookup
+     * @param usernames the usernames to look up
+     * @param studentIds where the results are stored, usernames that don't exist are stored as -1
+     * @param cacheResults whether to add the students that were queried to the student cache. Pass false when
+     * the transaction has written them and not committed yet.
+     */
+    private static void lookupStudentIds(Connection connection, Set<String> usernames, Map<String, Integer> studentIds,
+                                         boolean cacheResults) throws SQLException {
+        List<String> uncached = new ArrayList<String>();
+        for (String username : usernames) {
+            StudentCache.Student student = StudentCache.getIfCached(username);
+            if (student != null) {
+                studentIds.put(username, student.studentId);
+            } else {
+                uncached.add(username);
+                studentIds.put(username, -1);
+            }
+        }
+        if (uncached.isEmpty())
+            return;
+
+        String lookupQuery = "SELECT student_id, username, name FROM Students WHERE username IN (" + placeholders(uncached.size()) + ")";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(lookupQuery)) {
+            for (int i = 0; i < uncached.size(); i++) {
+                preparedStatement.setString(i + 1, uncached.get(i));
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int studentId = resultSet.getInt("student_id");
+                    studentIds.put(resultSet.getString("username"), studentId);
+                    if (cacheResults)
+                        StudentCache.put(studentId, resultSet.getString("username"), resultSet.getString("name"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the "?, ?, ?" list for an IN clause.
+     * @param count how many placeholders
+     * @return the placeholder list
+     */
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Shows the grades for a student with various other info like subtotal for each category, and overall grade, both total and attempted.
+     * @param session the session running the command
+     * @param username the username of the student
+     * @param classId the class_id of the current active class
+     * @return OK, or NOT_FOUND if the student isn't enrolled in the class or it has no categories
+     */
+    public static Result showStudentGrades(Session session, String username, int classId) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = session.getConnection();
+
+            String query = "SELECT s.username, s.name AS student_name, " +
+                           "c.name AS category_name, a.name AS assignment_name, " +
+                           "a.point_val AS assignment_points, COALESCE(g.score, 0) AS student_score, " +
+                           "COALESCE((g.score / a.point_val) * 100, 0) AS student_percentage " +
+                           "FROM Students s " +
+                           "JOIN Enrollments e ON s.student_id = e.student_id " +
+                           "JOIN Classes cl ON e.class_id = cl.class_id " +
+                           "JOIN Categories c ON cl.class_id = c.class_id " +
+                           "LEFT JOIN Assignments a ON c.category_id = a.category_id " +
+                           "LEFT JOIN Grades g ON s.student_id = g.student_id AND a.assignment_id = g.assignment_id " +
+                           "WHERE s.username = ? AND cl.class_id = ? " +
+                           "ORDER BY c.category_id, a.assignment_id";
+
+            preparedStatement = connection.prepareStatement(query);
             preparedStatement.setString(1, username);
             preparedStatement.setInt(2, classId);
 
@@ -1222,15 +1668,16 @@ public class GradeManager {
             int totalScoreForCat = 0;
             int assignmentPointsTotalForCat = 0;
             String categoryName = null;
-            if (resultSet.next()) {
-            	   categoryName = resultSet.getString("category_name");
-            	   resultSet.previous(); //set resultSet back to where it was
-            }
 
-            while (resultSet.next()) {
-            	if (!categoryName.equals(resultSet.getString("category_name"))) {
+            // Read forward-only; a subtotal is printed whenever the category changes
+            if (!resultSet.next()) {
+                session.out.println("Error: No grades found for the username " + username + " in the Class " + classId);
+                return Result.NOT_FOUND;
+            }
+            do {
+            	if (categoryName != null && !categoryName.equals(resultSet.getString("category_name"))) {
             		categoryPercentage = ((float) totalScoreForCat / assignmentPointsTotalForCat) * 100; // Update the category-wise total
-            		System.out.printf("Subtotal for Category %s: %d/%d %.2f%%\n", categoryName, totalScoreForCat, assignmentPointsTotalForCat, categoryPercentage);
+            		session.out.printf("Subtotal for Category %s: %d/%d %.2f%%\n", categoryName, totalScoreForCat, assignmentPointsTotalForCat, categoryPercentage);
                     totalScoreForCat = 0;
                     assignmentPointsTotalForCat = 0;
             	}
@@ -1254,26 +1701,28 @@ public class GradeManager {
                 totalAssignmentsPointsAcrossAllCats += assignmentPoints;
            
                 // Print grade
-                System.out.printf("Username: %s, Student Name: %s, Category: %s, Assignment Name: %s, Assignment Points: %d, Student Score: %d, Percentage: %.2f%%\n",
+                session.out.printf("Username: %s, Student Name: %s, Category: %s, Assignment Name: %s, Assignment Points: %d, Student Score: %d, Percentage: %.2f%%\n",
                         username, resultSet.getString("student_name"), categoryName, assignmentName, assignmentPoints, studentScore, studentPercentage);
-            }
+            } while (resultSet.next());
             categoryPercentage = ((float) totalScoreForCat / assignmentPointsTotalForCat) * 100; 
-    		System.out.printf("Subtotal for Category %s: %d/%d %.2f%%\n", categoryName, totalScoreForCat, assignmentPointsTotalForCat, categoryPercentage);
+    		session.out.printf("Subtotal for Category %s: %d/%d %.2f%%\n", categoryName, totalScoreForCat, assignmentPointsTotalForCat, categoryPercentage);
             
             overallGrade = ((float) totalScoreAcrossAllCats / totalAssignmentsPointsAcrossAllCats) * 100; 
  
             // Display totoal overall grade
-            System.out.printf("Total Overall Grade: %.2f%%\n", overallGrade);
+            session.out.printf("Total Overall Grade: %.2f%%\n", overallGrade);
             
             overallGradeAttempted = ((float) totalScoreAcrossAllCatsAttempted / totalAssignmentsPointsAcrossAllCatsAttempted) * 100; 
             
             // Display attempted overall grade
-            System.out.printf("Attempted Overall Grade: %.2f%%\n", overallGradeAttempted);
+            session.out.printf("Attempted Overall Grade: %.2f%%\n", overallGradeAttempted);
+            return Result.OK;
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
             sqlException.printStackTrace();
+            return Result.of(sqlException);
 
         } finally {
             try {
@@ -1288,48 +1737,340 @@ public class GradeManager {
     }
     
     /**
-     * Shows the current gradebook for the current active class.
-     * @param classId the class_id of the current active class.
+     * Shows a student's category subtotals and overall grades without listing every assignment. The subtotals,
+     * the overall totals (from WITH ROLLUP) and the grade weighted by Categories.weight all come from one query
+     * over the running totals, read forward-only as a streaming result. Attempted grades only count assignments
+     * that have a grade.
+     * @param session the session running the command
+     * @param username the username of the student
+     * @param classId the class_id of the current active class
      */
-    public static void showGradebook(int classId) {
+    public static void showStudentGradeSummary(Session session, String username, int classId) {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = Database.getDatabaseConnection();
-
-            String query = "SELECT s.username, s.student_id, s.name AS student_name, " +
-                           "COALESCE(SUM(COALESCE(g.score, 0)), 0) AS total_score, " +
-                           "COALESCE(SUM(a.point_val), 0) AS total_points, " +
-                           "COALESCE((SUM(COALESCE(g.score, 0)) / SUM(a.point_val)) * 100, 0) AS overall_percentage " +
+            connection = session.getConnection();
+
+            // One row per category from the running totals, plus the overall row and the weighted grade from
+            // WITH ROLLUP. Categories without any points are left out of the weighted grade.
+            String query = "SELECT c.name AS category_name, SUM(c.weight) AS weight, " +
+                           "SUM(COALESCE(gt.score_total, 0)) AS total_score, SUM(c.total_points) AS total_points, " +
+                           "SUM(COALESCE(gt.graded_points, 0)) AS attempted_points, " +
+                           "SUM(CASE WHEN c.total_points > 0 THEN c.weight * COALESCE(gt.score_total, 0) / c.total_points END) / " +
+                           "SUM(CASE WHEN c.total_points > 0 THEN c.weight END) * 100 AS weighted_percentage " +
                            "FROM Students s " +
                            "JOIN Enrollments e ON s.student_id = e.student_id " +
-                           "JOIN Classes cl ON e.class_id = cl.class_id " +
-                           "LEFT JOIN Categories c ON cl.class_id = c.class_id " +
-                           "LEFT JOIN Assignments a ON c.category_id = a.category_id " +
-                           "LEFT JOIN Grades g ON s.student_id = g.student_id AND a.assignment_id = g.assignment_id " +
-                           "WHERE cl.class_id = ? " +
-                           "GROUP BY s.username, s.student_id, s.name " +
-                           "ORDER BY s.username";
+                           "JOIN Categories c ON e.class_id = c.class_id " +
+                           "LEFT JOIN GradeTotals gt ON gt.student_id = s.student_id AND gt.category_id = c.category_id " +
+                           "WHERE s.username = ? AND e.class_id = ? " +
+                           "GROUP BY c.name WITH ROLLUP";
 
             preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setFetchSize(Integer.MIN_VALUE); // stream rows instead of buffering the result
+            preparedStatement.setString(1, username);
+            preparedStatement.setInt(2, classId);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            boolean found = false;
+            while (resultSet.next()) {
+                found = true;
+                String categoryName = resultSet.getString("category_name");
+                float totalScore = resultSet.getFloat("total_score");
+                int totalPoints = resultSet.getInt("total_points");
+                float weightedPercentage = resultSet.getFloat("weighted_percentage");
+                boolean weighted = !resultSet.wasNull();
+
+                if (categoryName != null) {
+                    session.out.printf("Subtotal for Category %s (weight %.2f): %.2f/%d %.2f%%\n",
+                            categoryName, resultSet.getFloat("weight"), totalScore, totalPoints, percentage(totalScore, totalPoints));
+                } else {
+                    // the WITH ROLLUP row holds the totals across all categories, ungraded assignments score nothing
+                    int attemptedPoints = resultSet.getInt("attempted_points");
+
+                    session.out.printf("Total Overall Grade: %.2f%%\n", percentage(totalScore, totalPoints));
+                    session.out.printf("Attempted Overall Grade: %.2f%%\n", percentage(totalScore, attemptedPoints));
+                    if (weighted) {
+                        session.out.printf("Weighted Overall Grade: %.2f%%\n", weightedPercentage);
+                    } else {
+                        session.out.println("Weighted Overall Grade: N/A");
+                    }
+                }
+            }
+
+            if (!found) {
+                session.out.println("Error: No grades found for student " + username + " in the Class " + classId);
+            }
+
+        } catch (SQLException sqlException) {
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+
+        } finally {
+            try {
+                if (preparedStatement != null)
+                    preparedStatement.close();
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return score as a percentage of points, 0 when there are no points
+     */
+    private static float percentage(float score, int points) {
+        return points == 0 ? 0 : score / points * 100;
+    }
+    
+    /**
+     * Shows the current gradebook for the current active class.
+     * @param session the session running the command
+     * @param classId the class_id of the current active class.
+     * @return OK, or why the query failed
+     */
+    public static Result showGradebook(Session session, int classId) {
+        Connection connection = null;
+
+        try {
+            connection = session.getConnection();
+
+            Formatter out = new Formatter(session.out);
+            writeGradebook(connection, classId, out);
+            out.flush();
+            return Result.OK;
+
+        } catch (SQLException sqlException) {
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+            return Result.of(sqlException);
+
+        } finally {
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the gradebook of one class, one line per student.
+     * @param connection the connection to query on
+     * @param classId the class_id of the class
+     * @param out where the lines are written
+     */
+    private static void writeGradebook(Connection connection, int classId, Formatter out) throws SQLException {
+        // Reads the running totals, one row per student and category, instead of every grade
+        String query = "SELECT s.username, s.student_id, s.name AS student_name, " +
+                       "COALESCE(SUM(gt.score_total), 0) AS total_score, " +
+                       "COALESCE(SUM(c.total_points), 0) AS total_points, " +
+                       "COALESCE((SUM(COALESCE(gt.score_total, 0)) / SUM(c.total_points)) * 100, 0) AS overall_percentage " +
+                       "FROM Enrollments e " +
+                       "JOIN Students s ON s.student_id = e.student_id " +
+                       "LEFT JOIN Categories c ON c.class_id = e.class_id " +
+                       "LEFT JOIN GradeTotals gt ON gt.student_id = e.student_id AND gt.category_id = c.category_id " +
+                       "WHERE e.class_id = ? " +
+                       "GROUP BY s.username, s.student_id, s.name " +
+                       "ORDER BY s.username";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setInt(1, classId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    out.format("Username: %s, Student ID: %d, Student Name: %s, Total Score: %d, Total Points: %d, Overall Percentage: %.2f%%\n",
+                            resultSet.getString("username"),
+                            resultSet.getInt("student_id"),
+                            resultSet.getString("student_name"),
+                            resultSet.getInt("total_score"),
+                            resultSet.getInt("total_points"),
+                            resultSet.getFloat("overall_percentage"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Shows the gradebook of every class, in class_id order like list-classes. The gradebooks are queried in
+     * parallel, at most as many at a time as the connection pool has connections to spare, on virtual threads
+     * when the JVM has them (Java 21) and on a fixed thread pool otherwise. Each gradebook is collected in
+     * memory and printed once it and every gradebook before it are done.
+     * @param session the session running the command
+     */
+    public static void showAllGradebooks(Session session) {
+        List<Integer> classIds = new ArrayList<Integer>();
+        List<String> classNames = new ArrayList<String>();
+
+        try (Connection connection = session.getConnection();
+             Statement sqlStatement = connection.createStatement();
+             ResultSet resultSet = sqlStatement.executeQuery(
+                     "SELECT class_id, course_num, term, section_num FROM Classes ORDER BY class_id")) {
+            while (resultSet.next()) {
+                classIds.add(resultSet.getInt("class_id"));
+                classNames.add(resultSet.getString("course_num") + " " + resultSet.getString("term") +
+                        " section " + resultSet.getInt("section_num"));
+            }
+        } catch (SQLException sqlException) {
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        ConnectionPool connectionPool = Database.getConnectionPool();
+        int parallelism = Math.max(1, connectionPool.getMaxSize() - connectionPool.getBorrowedConnections());
+        Semaphore permits = new Semaphore(parallelism);
+        ExecutorService executor = newTaskExecutor(parallelism);
+
+        try {
+            List<Future<String>> reports = new ArrayList<Future<String>>();
+            for (int i = 0; i < classIds.size(); i++) {
+                int classId = classIds.get(i);
+                String className = classNames.get(i);
+                reports.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return gradebookReport(classId, className);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (Future<String> report : reports) {
+                session.out.print(report.get());
+            }
+
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            session.out.println("Interrupted while generating gradebooks");
+
+        } catch (ExecutionException executionException) {
+            session.out.println("Failed to generate gradebooks");
+            session.out.println(executionException.getCause());
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        session.out.printf("Generated %d gradebooks in %.2f seconds with up to %d at a time%n", classIds.size(), seconds, parallelism);
+    }
+
+    /**
+     * Queries one class's gradebook on its own connection.
+     * @return the gradebook with a heading, or the error if the query failed
+     */
+    private static String gradebookReport(int classId, String className) {
+        StringBuilder report = new StringBuilder();
+        Formatter out = new Formatter(report);
+        out.format("Gradebook for Class ID: %d (%s)%n", classId, className);
+
+        try (Connection connection = Database.getDatabaseConnection()) {
+            writeGradebook(connection, classId, out);
+        } catch (SQLException sqlException) {
+            report.append("Failed to execute query\n");
+            report.append(sqlException.getMessage()).append('\n');
+        }
+        report.append("-".repeat(80)).append('\n');
+        return report.toString();
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task on Java 21 and later, or a fixed pool of
+     * the given number of threads before that
+     */
+    static ExecutorService newTaskExecutor(int threads) {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * Shows the gradebook for the current active class with each student's grade weighted by Categories.weight.
+     * Everything is computed in one query over the running totals, so the join is students x categories
+     * instead of students x assignments.
+     * @param session the session running the command
+     * @param classId the class_id of the current active class
+     */
+    public static void showWeightedGradebook(Session session, int classId) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = session.getConnection();
+
+            preparedStatement = connection.prepareStatement(WEIGHTED_GRADEBOOK_QUERY);
             preparedStatement.setInt(1, classId);
 
             ResultSet resultSet = preparedStatement.executeQuery();
 
             while (resultSet.next()) {
-                System.out.printf("Username: %s, Student ID: %d, Student Name: %s, Total Score: %d, Total Points: %d, Overall Percentage: %.2f%%\n",
+                float weightedPercentage = resultSet.getFloat("weighted_percentage");
+                String weighted = resultSet.wasNull() ? "N/A" : String.format("%.2f%%", weightedPercentage);
+
+                session.out.printf("Username: %s, Student ID: %d, Student Name: %s, Total Score: %.2f, Total Points: %d, Weighted Percentage: %s\n",
                         resultSet.getString("username"),
                         resultSet.getInt("student_id"),
                         resultSet.getString("student_name"),
-                        resultSet.getInt("total_score"),
+                        resultSet.getFloat("total_score"),
                         resultSet.getInt("total_points"),
-                        resultSet.getFloat("overall_percentage"));
+                        weighted);
+            }
+
+        } catch (SQLException sqlException) {
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+
+        } finally {
+            try {
+                if (preparedStatement != null)
+                    preparedStatement.close();
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Prints MySQL's query plan for the weighted gradebook of the current active class, to check which
+     * indexes each step uses.
+     * @param session the session running the command
+     * @param classId the class_id of the current active class
+     */
+    public static void explainWeightedGradebook(Session session, int classId) {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = session.getConnection();
+
+            preparedStatement = connection.prepareStatement("EXPLAIN " + WEIGHTED_GRADEBOOK_QUERY);
+            preparedStatement.setInt(1, classId);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+
+            while (resultSet.next()) {
+                for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                    session.out.println(metaData.getColumnLabel(column) + ": " + resultSet.getString(column));
+                }
+                session.out.println("-".repeat(80));
             }
 
         } catch (SQLException sqlException) {
-            System.out.println("Failed to execute query");
-            System.out.println(sqlException.getMessage());
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
 
         } finally {
             try {
@@ -1343,119 +2084,331 @@ public class GradeManager {
         }
     }
 
+    /**
+     * Exports the weighted gradebook of the current active class to a CSV or JSON file. The rows are streamed
+     * from the server one at a time (forward-only, read-only, fetch size Integer.MIN_VALUE) and written through
+     * a buffered writer, so memory use stays the same no matter how big the class is.
+     * @param session the session running the command
+     * @param format "csv" or "json"
+     * @param fileName the file to write
+     * @param classId the class_id of the current active class
+     */
+    public static void exportGradebook(Session session, String format, String fileName, int classId) {
+        if (!GradebookWriter.isFormat(format)) {
+            // before the file is opened, so a wrong format leaves it alone
+            session.out.println("Error: Unknown export format " + format + ", expected csv or json");
+            return;
+        }
+        Connection connection = null;
+        GradebookWriter gradebookWriter = null;
+        long startTime = System.nanoTime();
+
+        try {
+            gradebookWriter = GradebookWriter.forFormat(format, new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8), 1 << 16));
+            connection = session.getConnection();
+
+            writeWeightedGradebook(connection, classId, gradebookWriter);
+
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            session.out.printf("Exported %d students to %s in %.2f seconds%n", gradebookWriter.getRows(), fileName, seconds);
+
+        } catch (IllegalArgumentException illegalArgumentException) {
+            session.out.println("Error: " + illegalArgumentException.getMessage());
+
+        } catch (IOException ioException) {
+            session.out.println("Failed to write " + fileName);
+            session.out.println(ioException.getMessage());
+
+        } catch (SQLException sqlException) {
+            session.out.println("Failed to execute query");
+            session.out.println(sqlException.getMessage());
+
+        } finally {
+            try {
+                if (gradebookWriter != null)
+                    gradebookWriter.close();
+            } catch (IOException ioe) {
+            }
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Streams the weighted gradebook of one class into a gradebook writer, from begin() to end(). The rows are
+     * read forward-only with fetch size Integer.MIN_VALUE, so they come from the server one at a time.
+     * @param connection the connection to query on, no other statement can use it until this returns
+     * @param classId the class_id of the class
+     * @param gradebookWriter where the rows are written
+     */
+    static void writeWeightedGradebook(Connection connection, int classId, GradebookWriter gradebookWriter) throws SQLException, IOException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(WEIGHTED_GRADEBOOK_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(Integer.MIN_VALUE); // stream rows instead of buffering the result
+            preparedStatement.setInt(1, classId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                gradebookWriter.begin();
+                while (resultSet.next()) {
+                    float weightedPercentage = resultSet.getFloat(6);
+                    gradebookWriter.writeRow(
+                            resultSet.getString(1),
+                            resultSet.getInt(2),
+                            resultSet.getString(3),
+                            resultSet.getFloat(4),
+                            resultSet.getInt(5),
+                            weightedPercentage,
+                            !resultSet.wasNull());
+                }
+                gradebookWriter.end();
+            }
+        }
+    }
+
     /**
      * Main method that runs the console app. Takes in command line arguments from the user to determine what they want
-     * to do with the grade manager system.
+     * to do with the grade manager system. Started with --script file (or --script - for standard input), it runs the
+     * commands in the file instead, see ScriptRunner. Started with --http [port], it serves the commands over HTTP
+     * instead, see GradeServer.
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        System.out.println("Welcome to the School Management System");
-        System.out.println("-".repeat(80));
+        if (args.length > 0 && args[0].equals("--http")) {
+            // --http [port]
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : GradeServer.DEFAULT_PORT;
+            try {
+                InetSocketAddress address = GradeServer.start(port).getAddress();
+                System.out.println("Serving the grade manager on " + address.getHostString() + ":" + address.getPort());
+            } catch (IOException ioException) {
+                System.out.println("Failed to start the server on port " + port);
+                System.out.println(ioException.getMessage());
+                Database.shutdown();
+            }
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--script")) {
+            // --script file [--transaction-size N]
+            int transactionSize = args.length == 4 ? parsePositiveInt(args[3]) : 1;
+            if ((args.length != 2 && !(args.length == 4 && args[2].equals("--transaction-size"))) || transactionSize < 1) {
+                System.out.println("Usage: GradeManager --script file|- [--transaction-size N], N at least 1");
+                return;
+            }
+            ScriptRunner.run(args[1], transactionSize);
+            Database.shutdown();
+            return;
+        }
+
+        // reports are written by the output writer thread, see OutputSink
+        OutputSink console = new OutputSink(new FileOutputStream(FileDescriptor.out));
+        PrintStream out = new PrintStream(console, false);
+        SlowQueryLog.setOutput(out);
+        out.println("Welcome to the School Management System");
+        out.println("-".repeat(80));
 
         Scanner scan = new Scanner(System.in);
-        String command = "";
+        Session session = new Session(out);
+        CommandTokenizer tokens = new CommandTokenizer();
+        boolean quit;
 
         do {
-            System.out.print("Command: ");
-            command = scan.nextLine();
-            List<String> commandArguments = parseArguments(command);
-            command = commandArguments.get(0);
-            commandArguments.remove(0);
-
+            out.print("Command: ");
+            try {
+                // everything the last command printed, and the prompt, before waiting for the next command
+                console.sync();
+            } catch (IOException ioException) {
+                // like a PrintStream, keep going when the console can't be written
+            }
+            tokens.tokenize(scan.nextLine());
+            runCommand(session, tokens);
+            quit = tokens.size() > 0 && (tokens.equals(0, "quit") || tokens.equals(0, "exit"));
             
-            if (command.equals("test") && commandArguments.get(0).equals("connection")) {
-                Database.testConnection();
-                
-            } else if (command.equals("new-class")) {
-            	String sectionNumString = commandArguments.get(2);
-            	int sectionNum = Integer.parseInt(sectionNumString);
-            	createNewClass(commandArguments.get(0), commandArguments.get(1), sectionNum, commandArguments.get(3));
-            	
-            } else if (command.equals("list-classes")) {
-            	listClassesWithStudents();
-            	
-            } else if (command.equals("select-class")) {
-            	// select-class CS410 Sp20 1
-               	if (commandArguments.size() == 3) { //3 arguments
-               		String sectionNumString = commandArguments.get(2);
-                	int sectionNum = Integer.parseInt(sectionNumString);
-            		selectClassByTermAndSection(commandArguments.get(0), commandArguments.get(1), sectionNum);
-            	}
-            	// select-class CS410 Sp20
-               	else if (commandArguments.size() == 2) { //2 arguments
-            		selectClassByTerm(commandArguments.get(0), commandArguments.get(1));
-            		
-            	// select-class CS410
-            	}else if (commandArguments.size() == 1) { //1 argument
-                	selectClass(commandArguments.get(0));
-
-            	}else {
-                    System.out.println("Error: Incorrect number of args for select-class");
-            	}
-               	
-        
-            } else if (command.equals("show-class")) {
-            	selectCurrentActiveClass(currentActiveClass); //we pass in the current active class
-            	
-            	
-            	   
-            } else if (command.equals("show-categories")) {
-            	showCategoriesForActiveClass(currentActiveClass); //we pass in the current active class
-            	
-            } else if (command.equals("add-category")) {
-            	String weightString = commandArguments.get(1);
-            	float weightFloat = Float.parseFloat(weightString);
-            	addCategory(currentActiveClass, commandArguments.get(0),weightFloat); //we pass in the current active class
-            	
-            } else if (command.equals("show-assignment")) {
-            	showAssignmentsForClass(currentActiveClass); //we pass in the current active class
-            	
-            } else if (command.equals("add-assignment")) {
-            	// add-assignment name Category Description points – add a new assignment
-            	String pointsString = commandArguments.get(3);
-            	int pointsInt = Integer.parseInt(pointsString);
-            	addAssignment(commandArguments.get(0), commandArguments.get(1),commandArguments.get(2), pointsInt, currentActiveClass);
-            	
-            	//String username, int studentId, String name, int classId
-            } else if (command.equals("add-student")) {
-            	if (commandArguments.size() == 3) { //3 arguments
-                   	String studentIdString = commandArguments.get(1);
-                	int studentIdInt = Integer.parseInt(studentIdString);
-                	addStudent(commandArguments.get(0), studentIdInt, commandArguments.get(2), currentActiveClass); //we pass in the current active class
-            	}else {
-                	addStudentByUsername(commandArguments.get(0), currentActiveClass);	
-            	}
-            	
-            } else if (command.equals("show-students")) {
-            	if (commandArguments.size() == 1) { //1 arguments (string)
-            		showStudentsWithStringInClass(commandArguments.get(0), currentActiveClass);
-            		
-            	}else { //0 paramaters
-                	showStudentsInClass(currentActiveClass); //we pass in the current active class
+            out.println("-".repeat(80));
+        } while (!quit);
+        Database.shutdown();
+        out.println("Bye!");
+        out.close();
+    }
 
-            	}
-            //grade assignmentname username grade
-            } else if (command.equals("grade")) {
-            	String gradeString = commandArguments.get(2);
-            	float gradeFloat = Float.parseFloat(gradeString);
-            	gradeAssignment(commandArguments.get(0), commandArguments.get(1), gradeFloat, currentActiveClass); //we pass in the current active class
-            	
-            	
-            } else if (command.equals("student-grades")) {
-            	showStudentGrades(commandArguments.get(0),currentActiveClass); //pass in username and current active class 
-            	
-            } else if (command.equals("gradebook")) {
-            	showGradebook(currentActiveClass); //we pass in the current active class
-       
-            } else if (!(command.equals("quit") || command.equals("exit"))) {
-                System.out.println(command);
-                System.out.println("Command not found. Enter 'help' for list of commands");
+    /**
+     * @return the whole number in text, or -1 if it isn't a positive one
+     */
+    private static int parsePositiveInt(String text) {
+        try {
+            int value = Integer.parseInt(text);
+            return value > 0 ? value : -1;
+        } catch (NumberFormatException numberFormatException) {
+            return -1;
+        }
+    }
+
+    /**
+     * Every command by name, with the signature of its arguments. quit and exit do nothing here, the caller decides
+     * when to stop.
+     */
+    static final CommandRegistry COMMANDS = new CommandRegistry();
+
+    static {
+        COMMANDS.register("test", "{connection}", (session, arguments) -> Database.testConnection(session.out));
+
+        COMMANDS.register("new-class", "course term section:int description", (session, arguments) ->
+                createNewClass(session, arguments.getString(0), arguments.getString(1), arguments.getInt(2), arguments.getString(3)));
+
+        COMMANDS.register("list-classes", "", (session, arguments) -> listClassesWithStudents(session));
+
+        COMMANDS.register("select-class", "course [term [section:int]]", (session, arguments) -> {
+            if (arguments.size() == 3) {
+                selectClassByTermAndSection(session, arguments.getString(0), arguments.getString(1), arguments.getInt(2));
+            } else if (arguments.size() == 2) {
+                selectClassByTerm(session, arguments.getString(0), arguments.getString(1));
+            } else {
+                selectClass(session, arguments.getString(0));
             }
-            
-            
-            System.out.println("-".repeat(80));
-        } while (!(command.equals("quit") || command.equals("exit")));
-        System.out.println("Bye!");
+        });
+
+        COMMANDS.register("show-class", "", (session, arguments) -> selectCurrentActiveClass(session, session.getActiveClass()));
+
+        COMMANDS.register("show-categories", "", (session, arguments) -> showCategoriesForActiveClass(session, session.getActiveClass()));
+
+        COMMANDS.register("add-category", "name weight:float", (session, arguments) ->
+                addCategory(session, session.getActiveClass(), arguments.getString(0), arguments.getFloat(1)));
+
+        COMMANDS.register("show-assignment", "", (session, arguments) -> showAssignmentsForClass(session, session.getActiveClass()));
+
+        COMMANDS.register("add-assignment", "name category description points:int", (session, arguments) ->
+                addAssignment(session, arguments.getString(0), arguments.getString(1), arguments.getString(2), arguments.getInt(3), session.getActiveClass()));
+
+        COMMANDS.register("add-student", "username [studentid:int name]", (session, arguments) -> {
+            if (arguments.size() == 3) {
+                addStudent(session, arguments.getString(0), arguments.getInt(1), arguments.getString(2), session.getActiveClass());
+            } else {
+                addStudentByUsername(session, arguments.getString(0), session.getActiveClass());
+            }
+        });
+
+        COMMANDS.register("show-students", "[text]", (session, arguments) -> {
+            if (arguments.size() == 1) {
+                showStudentsWithStringInClass(session, arguments.getString(0), session.getActiveClass());
+            } else {
+                showStudentsInClass(session, session.getActiveClass());
+            }
+        });
+
+        COMMANDS.register("grade", "assignment username grade:float", (session, arguments) ->
+                gradeAssignment(session, arguments.getString(0), arguments.getString(1), arguments.getFloat(2), session.getActiveClass()));
+
+        COMMANDS.register("import-grades", "file [batch-size:int]", (session, arguments) ->
+                importGrades(session, arguments.getString(0), arguments.size() > 1 ? arguments.getInt(1) : DEFAULT_BATCH_SIZE, session.getActiveClass()));
+
+        COMMANDS.register("import-roster", "file [batch-size:int]", (session, arguments) ->
+                importRoster(session, arguments.getString(0), arguments.size() > 1 ? arguments.getInt(1) : DEFAULT_BATCH_SIZE, session.getActiveClass()));
+
+        COMMANDS.register("student-grades", "username", (session, arguments) -> showStudentGrades(session, arguments.getString(0), session.getActiveClass()));
+
+        COMMANDS.register("student-summary", "username", (session, arguments) -> showStudentGradeSummary(session, arguments.getString(0), session.getActiveClass()));
+
+        COMMANDS.register("gradebook", "[{weighted|explain}]", (session, arguments) -> {
+            if (arguments.size() == 0) {
+                showGradebook(session, session.getActiveClass());
+            } else if (arguments.getString(0).equals("weighted")) {
+                showWeightedGradebook(session, session.getActiveClass());
+            } else {
+                explainWeightedGradebook(session, session.getActiveClass());
+            }
+        });
+
+        COMMANDS.register("all-gradebooks", "", (session, arguments) -> showAllGradebooks(session));
+
+        COMMANDS.register("export-gradebook", "{csv|json} file", (session, arguments) ->
+                exportGradebook(session, arguments.getString(0), arguments.getString(1), session.getActiveClass()));
+
+        COMMANDS.register("stats", "[{json|reset}]", (session, arguments) -> {
+            if (arguments.size() == 0) {
+                Metrics.print(session.out);
+            } else if (arguments.getString(0).equals("json")) {
+                session.out.print(Metrics.toJson());
+            } else {
+                Metrics.reset();
+                session.out.println("Metrics reset");
+            }
+        });
+
+        COMMANDS.register("slow-queries", "[{json|clear}]", (session, arguments) -> {
+            if (arguments.size() == 0) {
+                SlowQueryLog.print(session.out);
+            } else if (arguments.getString(0).equals("json")) {
+                session.out.print(SlowQueryLog.toJson());
+            } else {
+                SlowQueryLog.clear();
+                session.out.println("Slow query log cleared");
+            }
+        });
+
+        COMMANDS.register("help", "", (session, arguments) -> COMMANDS.printUsage(session.out));
+        COMMANDS.register("quit", "", (session, arguments) -> { });
+        COMMANDS.register("exit", "", (session, arguments) -> { });
+    }
+
+    /**
+     * Runs one command against the session's current active class. Arguments that don't match the command's
+     * signature are reported instead of running it.
+     * @param session the session running the command
+     * @param command the name of the command
+     * @param commandArguments the arguments after the name
+     */
+    public static void runCommand(Session session, String command, List<String> commandArguments) {
+        runCommand(session, command, COMMANDS.find(command), commandArguments);
+    }
+
+    /**
+     * Runs the command of a tokenized line against the session's current active class. Blank lines do nothing.
+     * @param session the session running the command
+     * @param tokens the line, the first token is the name of the command
+     */
+    public static void runCommand(Session session, CommandTokenizer tokens) {
+        if (tokens.size() == 0) {
+            return;
+        }
+        CommandRegistry.Command command = COMMANDS.find(tokens);
+        runCommand(session, command == null ? tokens.getString(0) : command.getName(), command, tokens.getArguments());
+    }
+
+    /**
+     * Runs a command whose arguments were already checked, like the lines of a script.
+     * @param session the session running the command
+     * @param command the command
+     * @param arguments its arguments, bound by the command
+     */
+    public static void runCommand(Session session, CommandRegistry.Command command, CommandRegistry.Arguments arguments) {
+        long startTime = Metrics.startCommand();
+        try {
+            command.run(session, arguments);
+        } finally {
+            Metrics.endCommand(command.getName(), startTime);
+        }
+    }
+
+    private static void runCommand(Session session, String name, CommandRegistry.Command command, List<String> commandArguments) {
+        if (command == null) {
+            long startTime = Metrics.startCommand();
+            session.out.println(name);
+            session.out.println("Command not found. Enter 'help' for list of commands");
+            // one entry for all of them, a timer per typo would grow without bound
+            Metrics.endCommand(UNKNOWN_COMMAND, startTime);
+            return;
+        }
+
+        List<String> errors = new ArrayList<String>(1);
+        CommandRegistry.Arguments arguments = command.bind(commandArguments, errors);
+        if (arguments == null) {
+            session.out.println("Error: " + errors.get(0));
+            return;
+        }
+        runCommand(session, command, arguments);
     }
     
     // select-class CS321 Sp20 1
@@ -0,0 +1,290 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small HTTP front end over the grade manager commands, so other systems (like the LMS) can push grades and read
+ * reports concurrently instead of going through the console. Every endpoint answers with JSON:
+ *
+ *   GET  /select-class?course=CS410[&term=Sp20[&section=1]]      {"class_id": 1, "output": [...]}
+ *   POST /grade?class_id=1&assignment=...&username=...&grade=9.5 {"class_id": 1, "output": [...]}
+ *   GET  /student-grades?class_id=1&username=jane_smith             {"class_id": 1, "output": [...]}
+ *   GET  /gradebook?class_id=1                                 the weighted gradebook, like export-gradebook json
+ *   GET  /stats                                                the metrics, like stats json
+ *   GET  /slow-queries                                         the slow query log, like slow-queries json
+ *
+ * Parameters can be in the query string, or for POST in a form encoded body. "output" holds the lines the command
+ * printed. Bad or missing parameters get a 400 with {"error": "..."}. A command that runs but doesn't work still
+ * answers with its output, with a 404 if the class, student or assignment doesn't exist, a 409 if it collided with
+ * another transaction and can be retried, and a 500 if a query failed.
+ *
+ * The server has no users of its own, so by default it only listens on the loopback address. Set CS410_HTTP_BIND
+ * to the address to listen on to expose it, which also needs CS410_HTTP_TOKEN: every request must then send that
+ * token as "Authorization: Bearer <token>", or it gets a 401. The token is checked on loopback too when it is set.
+ *
+ * The server keeps nothing between requests: select-class only finds the class_id of a class, and the other
+ * endpoints take the class_id they work on. Each request runs the command in its own Session, borrowing from the
+ * connection pool, so requests never share an active class or output. Requests are handled on virtual threads
+ * on Java 21 and later, and on a fixed pool as big as the connection pool before that.
+ */
+public class GradeServer {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final String TOKEN = System.getenv("CS410_HTTP_TOKEN");
+
+    /**
+     * Starts the server on the address in CS410_HTTP_BIND, or the loopback address if it isn't set. It runs until
+     * the process ends, and closes the connection pool when it does.
+     * @param port the port to listen on
+     * @return the running server
+     * @throws IOException if the port can't be opened, or the address isn't loopback and CS410_HTTP_TOKEN isn't set
+     */
+    public static HttpServer start(int port) throws IOException {
+        String bind = System.getenv("CS410_HTTP_BIND");
+        InetAddress address = bind == null || bind.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        if (!address.isLoopbackAddress() && (TOKEN == null || TOKEN.isEmpty())) {
+            throw new IOException("Set CS410_HTTP_TOKEN before listening on " + address.getHostAddress());
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/select-class", exchange -> handle(exchange, "GET", GradeServer::selectClass));
+        server.createContext("/grade", exchange -> handle(exchange, "POST", GradeServer::grade));
+        server.createContext("/student-grades", exchange -> handle(exchange, "GET", GradeServer::studentGrades));
+        server.createContext("/gradebook", exchange -> handle(exchange, "GET", GradeServer::gradebook));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", parameters -> new Response(200, Metrics.toJson())));
+        server.createContext("/slow-queries", exchange -> handle(exchange, "GET", parameters -> new Response(200, SlowQueryLog.toJson())));
+        server.setExecutor(GradeManager.newTaskExecutor(Database.getConnectionPool().getMaxSize()));
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            Database.shutdown();
+        }));
+        return server;
+    }
+
+    private static Response selectClass(Map<String, String> parameters) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        String course = required(parameters, "course");
+        String term = parameters.get("term");
+        String section = parameters.get("section");
+        GradeManager.Result result;
+        if (term == null) {
+            result = GradeManager.selectClass(session, course);
+        } else if (section == null) {
+            result = GradeManager.selectClassByTerm(session, course, term);
+        } else {
+            result = GradeManager.selectClassByTermAndSection(session, course, term, parseInt(section, "section"));
+        }
+
+        int classId = session.getActiveClass();
+        return new Response(status(result), commandOutput(result == GradeManager.Result.OK ? classId : null, output));
+    }
+
+    private static Response grade(Map<String, String> parameters) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        int classId = parseInt(required(parameters, "class_id"), "class_id");
+        float grade;
+        try {
+            grade = Float.parseFloat(required(parameters, "grade"));
+        } catch (NumberFormatException numberFormatException) {
+            throw new IllegalArgumentException("grade must be a number");
+        }
+        GradeManager.Result result = GradeManager.gradeAssignment(session, required(parameters, "assignment"), required(parameters, "username"), grade, classId);
+        return new Response(status(result), commandOutput(classId, output));
+    }
+
+    private static Response studentGrades(Map<String, String> parameters) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        int classId = parseInt(required(parameters, "class_id"), "class_id");
+        GradeManager.Result result = GradeManager.showStudentGrades(session, required(parameters, "username"), classId);
+        return new Response(status(result), commandOutput(classId, output));
+    }
+
+    private static Response gradebook(Map<String, String> parameters) throws SQLException, IOException {
+        int classId = parseInt(required(parameters, "class_id"), "class_id");
+
+        // buffered so a failed query can still be answered with an error status
+        StringWriter body = new StringWriter();
+        try (Connection connection = Database.getDatabaseConnection()) {
+            GradeManager.writeWeightedGradebook(connection, classId, GradebookWriter.forFormat("json", body));
+        }
+        return new Response(200, body.toString());
+    }
+
+    /**
+     * Runs an endpoint and sends its response. The time until the response is ready is recorded in Metrics
+     * as the command "http /path".
+     */
+    private static void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        Response response;
+        long startTime = Metrics.startCommand();
+        try {
+            if (!isAuthorized(exchange)) {
+                response = error(401, "Missing or wrong token");
+            } else if (!exchange.getRequestMethod().equals(method)) {
+                response = error(405, "Use " + method);
+            } else {
+                response = endpoint.handle(readParameters(exchange));
+            }
+        } catch (IllegalArgumentException illegalArgumentException) {
+            response = error(400, illegalArgumentException.getMessage());
+        } catch (SQLException sqlException) {
+            response = error(500, "Failed to execute query: " + sqlException.getMessage());
+        } catch (RuntimeException | IOException exception) {
+            response = error(500, exception.toString());
+        } finally {
+            Metrics.endCommand("http " + exchange.getHttpContext().getPath(), startTime);
+        }
+
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return whether the request sent the token, or no token is needed
+     */
+    private static boolean isAuthorized(HttpExchange exchange) {
+        if (TOKEN == null || TOKEN.isEmpty()) {
+            return true;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && MessageDigest.isEqual(
+                authorization.getBytes(StandardCharsets.UTF_8), ("Bearer " + TOKEN).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the HTTP status for how a command ended
+     */
+    private static int status(GradeManager.Result result) {
+        switch (result) {
+            case OK:
+                return 200;
+            case NOT_FOUND:
+                return 404;
+            case CONFLICT:
+                return 409;
+            default:
+                return 500;
+        }
+    }
+
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+        if (exchange.getRequestMethod().equals("POST")) {
+            try (InputStream in = exchange.getRequestBody()) {
+                parseParameters(new String(in.readAllBytes(), StandardCharsets.UTF_8), parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private static void parseParameters(String encoded, Map<String, String> parameters) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException numberFormatException) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    /**
+     * @return {"class_id": classId, "output": [one string per line the command printed]}
+     */
+    private static String commandOutput(Integer classId, ByteArrayOutputStream output) {
+        StringWriter json = new StringWriter();
+        try {
+            json.write("{\"class_id\":");
+            json.write(classId == null ? "null" : classId.toString());
+            json.write(",\"output\":[");
+            String[] lines = output.toString(StandardCharsets.UTF_8).split("\r?\n");
+            boolean first = true;
+            for (String line : lines) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (!first) {
+                    json.write(',');
+                }
+                GradebookWriter.writeJsonString(json, line);
+                first = false;
+            }
+            json.write("]}\n");
+        } catch (IOException ioException) {
+            // a StringWriter doesn't throw
+        }
+        return json.toString();
+    }
+
+    private static Response error(int status, String message) {
+        StringWriter json = new StringWriter();
+        try {
+            json.write("{\"error\":");
+            GradebookWriter.writeJsonString(json, message);
+            json.write("}\n");
+        } catch (IOException ioException) {
+            // a StringWriter doesn't throw
+        }
+        return new Response(status, json.toString());
+    }
+
+    private interface Endpoint {
+        Response handle(Map<String, String> parameters) throws SQLException, IOException;
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
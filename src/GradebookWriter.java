@@ -0,0 +1,254 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes gradebook rows as CSV or JSON. Rows are written straight to the underlying writer as they come
+ * in, so an export needs the same memory for ten students or ten thousand. Fields are written with plain
+ * appends instead of format strings, since an export can have many thousands of rows.
+ */
+public abstract class GradebookWriter implements Closeable {
+
+    protected final Writer out;
+    private final char[] digits = new char[24];
+    protected int rows;
+
+    protected GradebookWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Creates a writer for the given format.
+     * @param format "csv" or "json"
+     * @param out where the rows are written, should be buffered
+     * @return the writer
+     */
+    public static GradebookWriter forFormat(String format, Writer out) {
+        if (!isFormat(format)) {
+            throw new IllegalArgumentException("Unknown export format " + format + ", expected csv or json");
+        }
+        if (format.equalsIgnoreCase("csv")) {
+            return new Csv(out);
+        }
+        return new Json(out);
+    }
+
+    /**
+     * @return whether forFormat has a writer for a format, so it can be checked before the output is opened
+     */
+    public static boolean isFormat(String format) {
+        return format.equalsIgnoreCase("csv") || format.equalsIgnoreCase("json");
+    }
+
+    /**
+     * Writes whatever comes before the first row.
+     * @throws IOException
+     */
+    public abstract void begin() throws IOException;
+
+    /**
+     * Writes one student's row.
+     * @param username the student's username
+     * @param studentId the student's student_id
+     * @param name the student's name
+     * @param totalScore the student's total score
+     * @param totalPoints the points available
+     * @param weightedPercentage the weighted grade, ignored when hasWeightedPercentage is false
+     * @param hasWeightedPercentage whether the class has a weighted grade
+     * @throws IOException
+     */
+    public abstract void writeRow(String username, int studentId, String name, float totalScore, int totalPoints,
+            float weightedPercentage, boolean hasWeightedPercentage) throws IOException;
+
+    /**
+     * Writes whatever comes after the last row.
+     * @throws IOException
+     */
+    public abstract void end() throws IOException;
+
+    /**
+     * @return how many rows have been written
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes text as a JSON string, or null.
+     * @param out where the string is written
+     * @param text the text, can be null
+     * @throws IOException
+     */
+    static void writeJsonString(Writer out, String text) throws IOException {
+        if (text == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write("\\u00");
+                out.write(Character.forDigit(c >> 4, 16));
+                out.write(Character.forDigit(c & 0xF, 16));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes an int without creating a String.
+     */
+    protected void writeInt(long value) throws IOException {
+        int position = digits.length;
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        do {
+            digits[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        out.write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Writes a number rounded to two decimal places without creating a String.
+     */
+    protected void writeDecimal(float value) throws IOException {
+        long hundredths = Math.round((double) value * 100);
+        if (hundredths < 0) {
+            out.write('-');
+            hundredths = -hundredths;
+        }
+        writeInt(hundredths / 100);
+        out.write('.');
+        out.write((char) ('0' + hundredths / 10 % 10));
+        out.write((char) ('0' + hundredths % 10));
+    }
+
+    /**
+     * Comma separated values with a header row. Text is quoted only when it needs to be.
+     */
+    private static class Csv extends GradebookWriter {
+
+        Csv(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            out.write("username,student_id,name,total_score,total_points,weighted_percentage\n");
+        }
+
+        @Override
+        public void writeRow(String username, int studentId, String name, float totalScore, int totalPoints,
+                float weightedPercentage, boolean hasWeightedPercentage) throws IOException {
+            writeText(username);
+            out.write(',');
+            writeInt(studentId);
+            out.write(',');
+            writeText(name);
+            out.write(',');
+            writeDecimal(totalScore);
+            out.write(',');
+            writeInt(totalPoints);
+            out.write(',');
+            if (hasWeightedPercentage) {
+                writeDecimal(weightedPercentage);
+            }
+            out.write('\n');
+            rows++;
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.flush();
+        }
+
+        private void writeText(String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            boolean needsQuotes = false;
+            for (int i = 0; i < text.length() && !needsQuotes; i++) {
+                char c = text.charAt(i);
+                needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!needsQuotes) {
+                out.write(text);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+    }
+
+    /**
+     * A JSON array with one object per student.
+     */
+    private static class Json extends GradebookWriter {
+
+        Json(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            out.write('[');
+        }
+
+        @Override
+        public void writeRow(String username, int studentId, String name, float totalScore, int totalPoints,
+                float weightedPercentage, boolean hasWeightedPercentage) throws IOException {
+            out.write(rows == 0 ? "\n{\"username\":" : ",\n{\"username\":");
+            writeText(username);
+            out.write(",\"student_id\":");
+            writeInt(studentId);
+            out.write(",\"name\":");
+            writeText(name);
+            out.write(",\"total_score\":");
+            writeDecimal(totalScore);
+            out.write(",\"total_points\":");
+            writeInt(totalPoints);
+            out.write(",\"weighted_percentage\":");
+            if (hasWeightedPercentage) {
+                writeDecimal(weightedPercentage);
+            } else {
+                out.write("null");
+            }
+            out.write('}');
+            rows++;
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write("\n]\n");
+            out.flush();
+        }
+
+        private void writeText(String text) throws IOException {
+            writeJsonString(out, text);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a mix of grade manager commands from concurrent simulated graders, to find how much load the program
+ * takes before it saturates and to compare releases:
+ *
+ *   java -cp src:src/libs/mysql-connector-java-5.1.47.jar LoadDriver [--graders 1,4,16,64] [--duration 60]
+ *        [--warmup 10] [--mix grade=70,student-grades=20,gradebook=10] [--classes 100]
+ *
+ * The commands run against classes picked at random from the database (fill it with DataGenerator first), each
+ * with its students and assignments. For every number of graders in --graders, that many threads each run
+ * commands back to back in their own Session for the warm up, then for the measured duration, and the driver
+ * prints the throughput, error rate and p50/p99/p99.9/max latency of each command. A command is counted as an
+ * error if it throws or doesn't return GradeManager.Result.OK, the same outcome GradeServer answers with.
+ *
+ * Every command borrows from the connection pool (CS410_POOL_MAX_SIZE), so once there are more graders than
+ * connections the extra graders queue for one, which is usually where the latency starts climbing.
+ */
+public class LoadDriver {
+
+    private static final String[] COMMANDS = { "grade", "student-grades", "gradebook" };
+
+    public static void main(String[] args) throws Exception {
+        int[] graderCounts = { 1, 4, 16, 64 };
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        int classCount = 100;
+        double[] mix = { 70, 20, 10 };
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--graders")) {
+                graderCounts = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (args[i].equals("--duration")) {
+                durationSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--warmup")) {
+                warmupSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--classes")) {
+                classCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--mix")) {
+                mix = parseMix(args[++i]);
+            } else {
+                System.out.println("Usage: LoadDriver [--graders N,N,...] [--duration S] [--warmup S] "
+                        + "[--mix grade=70,student-grades=20,gradebook=10] [--classes N]");
+                return;
+            }
+        }
+
+        try {
+            List<Target> targets = loadTargets(classCount);
+            if (targets.isEmpty()) {
+                System.out.println("No classes with students and assignments to run against");
+                return;
+            }
+            System.out.printf("Running against %d classes, pool of %d connections%n",
+                    targets.size(), Database.getConnectionPool().getMaxSize());
+
+            double[] cumulativeMix = new double[mix.length];
+            for (int c = 0; c < mix.length; c++) {
+                cumulativeMix[c] = (c == 0 ? 0 : cumulativeMix[c - 1]) + mix[c];
+            }
+            for (int graders : graderCounts) {
+                run(graders, warmupSeconds, durationSeconds, targets, cumulativeMix);
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("Failed to execute query");
+            System.out.println(sqlException.getMessage());
+        } finally {
+            Database.shutdown();
+        }
+    }
+
+    /**
+     * @return the percentage of each of COMMANDS
+     */
+    private static double[] parseMix(String text) {
+        double[] mix = new double[COMMANDS.length];
+        for (String part : text.split(",")) {
+            String[] nameAndPercent = part.split("=");
+            int command = Arrays.asList(COMMANDS).indexOf(nameAndPercent[0].trim());
+            if (command < 0 || nameAndPercent.length != 2) {
+                throw new IllegalArgumentException("Unknown command in mix: " + part);
+            }
+            mix[command] = Double.parseDouble(nameAndPercent[1]);
+        }
+        return mix;
+    }
+
+    /**
+     * Runs one step of the load and prints its results.
+     */
+    private static void run(int graders, int warmupSeconds, int durationSeconds, List<Target> targets,
+                            double[] cumulativeMix) throws InterruptedException {
+        CommandStats[] stats = new CommandStats[COMMANDS.length];
+        for (int c = 0; c < COMMANDS.length; c++) {
+            stats[c] = new CommandStats();
+        }
+
+        long measureStart = System.nanoTime() + warmupSeconds * 1000000000L;
+        long end = measureStart + durationSeconds * 1000000000L;
+        Thread[] threads = new Thread[graders];
+        for (int g = 0; g < graders; g++) {
+            threads[g] = new Thread(() -> grade(targets, cumulativeMix, stats, measureStart, end), "grader-" + g);
+            threads[g].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("%n%d graders, %d seconds%n", graders, durationSeconds);
+        System.out.printf("%-16s %10s %10s %8s %10s %10s %10s %10s%n",
+                "command", "ops", "ops/sec", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long totalOperations = 0;
+        long totalErrors = 0;
+        for (int c = 0; c < COMMANDS.length; c++) {
+            Metrics.LatencyHistogram latency = stats[c].latency;
+            long operations = latency.getCount();
+            long errors = stats[c].errors.sum();
+            totalOperations += operations;
+            totalErrors += errors;
+            if (operations == 0) {
+                continue;
+            }
+            System.out.printf("%-16s %10d %10.1f %7.2f%% %10.2f %10.2f %10.2f %10.2f%n",
+                    COMMANDS[c], operations, operations / (double) durationSeconds, 100.0 * errors / operations,
+                    latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0,
+                    latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+        }
+        System.out.printf("%-16s %10d %10.1f %7.2f%%%n", "total", totalOperations,
+                totalOperations / (double) durationSeconds,
+                totalOperations == 0 ? 0 : 100.0 * totalErrors / totalOperations);
+    }
+
+    /**
+     * The loop of one simulated grader. Only commands that start after the warm up are counted.
+     */
+    private static void grade(List<Target> targets, double[] cumulativeMix, CommandStats[] stats,
+                              long measureStart, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        long startTime;
+        while ((startTime = System.nanoTime()) < end) {
+            Target target = targets.get(random.nextInt(targets.size()));
+
+            double point = random.nextDouble() * cumulativeMix[cumulativeMix.length - 1];
+            int command = 0;
+            while (command < cumulativeMix.length - 1 && point >= cumulativeMix[command]) {
+                command++;
+            }
+
+            String username = target.usernames.get(random.nextInt(target.usernames.size()));
+            output.reset();
+            GradeManager.Result result;
+            try {
+                if (COMMANDS[command].equals("grade")) {
+                    int assignment = random.nextInt(target.assignments.size());
+                    float grade = Math.round(random.nextDouble() * target.points.get(assignment) * 2) / 2f;
+                    result = GradeManager.gradeAssignment(session, target.assignments.get(assignment), username, grade, target.classId);
+                } else if (COMMANDS[command].equals("student-grades")) {
+                    result = GradeManager.showStudentGrades(session, username, target.classId);
+                } else {
+                    result = GradeManager.showGradebook(session, target.classId);
+                }
+            } catch (RuntimeException runtimeException) {
+                result = GradeManager.Result.FAILED;
+            }
+            long micros = (System.nanoTime() - startTime) / 1000;
+
+            if (startTime >= measureStart) {
+                if (result != GradeManager.Result.OK) {
+                    stats[command].errors.increment();
+                }
+                stats[command].latency.record(micros);
+            }
+        }
+    }
+
+    /**
+     * Picks random classes that have students and assignments, with up to 200 of the students of each.
+     */
+    private static List<Target> loadTargets(int classCount) throws SQLException {
+        List<Target> targets = new ArrayList<Target>();
+        try (Connection connection = Database.getDatabaseConnection()) {
+            List<Integer> classIds = new ArrayList<Integer>();
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT c.class_id FROM Classes c " +
+                    "WHERE EXISTS (SELECT 1 FROM Enrollments e WHERE e.class_id = c.class_id) " +
+                    "AND EXISTS (SELECT 1 FROM Categories ca JOIN Assignments a ON a.category_id = ca.category_id " +
+                    "WHERE ca.class_id = c.class_id) " +
+                    "ORDER BY RAND() LIMIT ?")) {
+                preparedStatement.setInt(1, classCount);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        classIds.add(resultSet.getInt(1));
+                    }
+                }
+            }
+
+            for (int classId : classIds) {
+                Target target = new Target(classId);
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        "SELECT s.username FROM Enrollments e JOIN Students s ON s.student_id = e.student_id " +
+                        "WHERE e.class_id = ? LIMIT 200")) {
+                    preparedStatement.setInt(1, classId);
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            target.usernames.add(resultSet.getString(1));
+                        }
+                    }
+                }
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        "SELECT a.name, a.point_val FROM Categories c JOIN Assignments a ON a.category_id = c.category_id " +
+                        "WHERE c.class_id = ?")) {
+                    preparedStatement.setInt(1, classId);
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            target.assignments.add(resultSet.getString(1));
+                            target.points.add(resultSet.getInt(2));
+                        }
+                    }
+                }
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * A class the graders work on.
+     */
+    private static class Target {
+        final int classId;
+        final List<String> usernames = new ArrayList<String>();
+        final List<String> assignments = new ArrayList<String>();
+        final List<Integer> points = new ArrayList<Integer>();
+
+        Target(int classId) {
+            this.classId = classId;
+        }
+    }
+
+    private static class CommandStats {
+        final Metrics.LatencyHistogram latency = new Metrics.LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+}
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where the time goes: a latency histogram per command and per SQL statement, how many database round
+ * trips, connection borrows and result rows each command needed, and how long borrowing a connection took.
+ * GradeManager.runCommand() times the commands, and the connection pool reports the statements, round trips and
+ * borrows. Work done on other threads for a command (the all-gradebooks workers) counts toward the statements
+ * but not toward the command. Printed by the stats command, and served as JSON by the HTTP server at /stats.
+ * Set CS410_METRICS=0 to turn it off.
+ */
+public class Metrics {
+
+    private static final boolean ENABLED = Database.getEnvInt("CS410_METRICS", 1) != 0;
+    private static final int MAX_STATEMENTS = 500; // distinct SQL texts tracked, the rest are counted together
+    private static final String OTHER_STATEMENTS = "(other statements)";
+
+    private static final Map<String, Timer> commands = new ConcurrentHashMap<String, Timer>();
+    private static final Map<String, Timer> statements = new ConcurrentHashMap<String, Timer>();
+    private static final Timer connectionAcquire = new Timer();
+    private static final ThreadLocal<CommandCounts> currentCommand = new ThreadLocal<CommandCounts>();
+
+    /**
+     * @return whether metrics are being recorded
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Starts counting the round trips, connections and rows of a command run on the calling thread.
+     * @return the start time to pass to endCommand()
+     */
+    public static long startCommand() {
+        if (ENABLED) {
+            currentCommand.set(new CommandCounts());
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a command that was started on the calling thread with startCommand().
+     * @param name the name of the command
+     * @param startTime what startCommand() returned
+     */
+    public static void endCommand(String name, long startTime) {
+        if (!ENABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - startTime;
+        CommandCounts counts = currentCommand.get();
+        currentCommand.remove();
+        Timer timer = commands.computeIfAbsent(name, key -> new Timer());
+        timer.record(nanos);
+        if (counts != null) {
+            timer.roundTrips.add(counts.roundTrips);
+            timer.connections.add(counts.connections);
+            timer.rows.add(counts.rows);
+        }
+    }
+
+    /**
+     * Records one executed statement, which is one round trip.
+     * @param sql the SQL text of the statement
+     * @param nanos how long it took
+     */
+    public static void recordStatement(String sql, long nanos) {
+        if (!ENABLED) {
+            return;
+        }
+        statementTimer(sql).record(nanos);
+        CommandCounts counts = currentCommand.get();
+        if (counts != null) {
+            counts.roundTrips++;
+        }
+    }
+
+    /**
+     * Records a round trip that isn't a statement, like a commit or a validation ping.
+     */
+    public static void recordRoundTrip() {
+        if (!ENABLED) {
+            return;
+        }
+        CommandCounts counts = currentCommand.get();
+        if (counts != null) {
+            counts.roundTrips++;
+        }
+    }
+
+    /**
+     * Records a connection borrowed from the pool.
+     * @param nanos how long the borrow took, including waiting for a free connection
+     */
+    public static void recordConnectionAcquire(long nanos) {
+        if (!ENABLED) {
+            return;
+        }
+        connectionAcquire.record(nanos);
+        CommandCounts counts = currentCommand.get();
+        if (counts != null) {
+            counts.connections++;
+        }
+    }
+
+    /**
+     * Wraps a query's result set so the rows read from it are counted.
+     * @param resultSet the result set
+     * @param sql the SQL text of the query
+     * @param slowQuery the slow query log entry of the query, or null if it wasn't slow
+     * @return the counting result set
+     */
+    public static ResultSet countRows(ResultSet resultSet, String sql, SlowQueryLog.Entry slowQuery) {
+        if (!ENABLED && slowQuery == null) {
+            return resultSet;
+        }
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                new RowCounter(resultSet, ENABLED ? statementTimer(sql) : null, slowQuery));
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void reset() {
+        commands.clear();
+        statements.clear();
+        connectionAcquire.clear();
+    }
+
+    /**
+     * Prints the recorded metrics as tables, times in milliseconds.
+     * @param out where to print them
+     */
+    public static void print(PrintStream out) {
+        if (!ENABLED) {
+            out.println("Metrics are turned off (CS410_METRICS=0)");
+            return;
+        }
+        out.println("Commands:");
+        out.printf("  %-20s %8s %9s %9s %9s %9s %11s %11s %9s%n",
+                "command", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "round trips", "connections", "rows");
+        for (Map.Entry<String, Timer> entry : sorted(commands)) {
+            Timer timer = entry.getValue();
+            long count = timer.histogram.getCount();
+            out.printf("  %-20s %8d %9.2f %9.2f %9.2f %9.2f %11.1f %11.1f %9.1f%n", entry.getKey(), count,
+                    millis(timer.histogram.getPercentile(50)), millis(timer.histogram.getPercentile(90)),
+                    millis(timer.histogram.getPercentile(99)), millis(timer.histogram.getMax()),
+                    perCommand(timer.roundTrips, count), perCommand(timer.connections, count), perCommand(timer.rows, count));
+        }
+
+        out.println("Statements:");
+        out.printf("  %8s %9s %9s %9s %9s %9s  %s%n", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "rows", "sql");
+        for (Map.Entry<String, Timer> entry : sorted(statements)) {
+            Timer timer = entry.getValue();
+            String sql = entry.getKey();
+            out.printf("  %8d %9.2f %9.2f %9.2f %9.2f %9d  %s%n", timer.histogram.getCount(),
+                    millis(timer.histogram.getPercentile(50)), millis(timer.histogram.getPercentile(90)),
+                    millis(timer.histogram.getPercentile(99)), millis(timer.histogram.getMax()), timer.rows.sum(),
+                    sql.length() > 100 ? sql.substring(0, 97) + "..." : sql);
+        }
+
+        out.printf("Connection acquire: %d borrows, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                connectionAcquire.histogram.getCount(), millis(connectionAcquire.histogram.getPercentile(50)),
+                millis(connectionAcquire.histogram.getPercentile(99)), millis(connectionAcquire.histogram.getMax()));
+
+        ConnectionPool connectionPool = Database.getConnectionPool();
+        out.printf("Connections: %d open, %d borrowed, statement cache %d hits / %d misses%n",
+                connectionPool.getTotalConnections(), connectionPool.getBorrowedConnections(),
+                connectionPool.getStatementCacheHits(), connectionPool.getStatementCacheMisses());
+        out.printf("Caches: class metadata %d hits / %d misses, students %d hits / %d misses%n",
+                ClassMetadataCache.getHits(), ClassMetadataCache.getMisses(), StudentCache.getHits(), StudentCache.getMisses());
+    }
+
+    /**
+     * @return the recorded metrics as one JSON object, times in milliseconds
+     */
+    public static String toJson() {
+        StringWriter json = new StringWriter();
+        try {
+            json.write("{\"enabled\":" + ENABLED + ",\"commands\":{");
+            writeTimers(json, commands, true);
+            json.write("},\"statements\":{");
+            writeTimers(json, statements, false);
+            json.write("},\"connection_acquire\":");
+            writeTimer(json, connectionAcquire, false);
+            json.write("}\n");
+        } catch (IOException ioException) {
+            // a StringWriter doesn't throw
+        }
+        return json.toString();
+    }
+
+    private static void writeTimers(StringWriter json, Map<String, Timer> timers, boolean perCommand) throws IOException {
+        boolean first = true;
+        for (Map.Entry<String, Timer> entry : sorted(timers)) {
+            if (!first) {
+                json.write(',');
+            }
+            GradebookWriter.writeJsonString(json, entry.getKey());
+            json.write(':');
+            writeTimer(json, entry.getValue(), perCommand);
+            first = false;
+        }
+    }
+
+    private static void writeTimer(StringWriter json, Timer timer, boolean perCommand) {
+        LatencyHistogram histogram = timer.histogram;
+        long count = histogram.getCount();
+        json.write("{\"count\":" + count +
+                ",\"mean_ms\":" + millis(histogram.getMean()) +
+                ",\"p50_ms\":" + millis(histogram.getPercentile(50)) +
+                ",\"p90_ms\":" + millis(histogram.getPercentile(90)) +
+                ",\"p99_ms\":" + millis(histogram.getPercentile(99)) +
+                ",\"max_ms\":" + millis(histogram.getMax()) +
+                ",\"rows\":" + timer.rows.sum());
+        if (perCommand) {
+            json.write(",\"round_trips_per_command\":" + perCommand(timer.roundTrips, count) +
+                    ",\"connections_per_command\":" + perCommand(timer.connections, count));
+        }
+        json.write('}');
+    }
+
+    private static Timer statementTimer(String sql) {
+        Timer timer = statements.get(sql);
+        if (timer == null) {
+            String key = statements.size() < MAX_STATEMENTS ? sql : OTHER_STATEMENTS;
+            timer = statements.computeIfAbsent(key, k -> new Timer());
+        }
+        return timer;
+    }
+
+    private static List<Map.Entry<String, Timer>> sorted(Map<String, Timer> timers) {
+        // busiest first
+        List<Map.Entry<String, Timer>> entries = new ArrayList<Map.Entry<String, Timer>>(timers.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().histogram.getTotal(), a.getValue().histogram.getTotal()));
+        return entries;
+    }
+
+    private static double millis(double micros) {
+        return Math.round(micros / 10) / 100.0;
+    }
+
+    private static double perCommand(LongAdder total, long count) {
+        return count == 0 ? 0 : Math.round(total.sum() * 10.0 / count) / 10.0;
+    }
+
+    /**
+     * The counts of the command running on one thread.
+     */
+    private static class CommandCounts {
+        long roundTrips;
+        long connections;
+        long rows;
+    }
+
+    /**
+     * A latency histogram plus totals for one command, statement or the connection borrows.
+     */
+    private static class Timer {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder roundTrips = new LongAdder();
+        final LongAdder connections = new LongAdder();
+        final LongAdder rows = new LongAdder();
+
+        void record(long nanos) {
+            histogram.record(nanos / 1000);
+        }
+
+        void clear() {
+            histogram.clear();
+            roundTrips.reset();
+            connections.reset();
+            rows.reset();
+        }
+    }
+
+    /**
+     * A histogram of microsecond values in the style of HdrHistogram: values below 128 get their own bucket,
+     * and larger ones keep their top 7 bits, so every percentile is within 1.6% of the recorded value. Values
+     * are capped at about 38 hours. Recording is lock-free and can be done from any thread.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 30;
+        private static final long MAX_VALUE = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, Math.min(micros, MAX_VALUE));
+            counts.incrementAndGet(indexOf(value));
+            count.increment();
+            total.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getTotal() {
+            return total.sum();
+        }
+
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return the value that percentile of the recorded values are at or below, 0 if nothing was recorded
+         */
+        long getPercentile(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(valueOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void clear() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+
+        static int indexOf(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        /**
+         * @return the middle of the range of values counted in a bucket
+         */
+        static long valueOf(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >> 1);
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set toward its statement, the current command and its slow query
+     * log entry.
+     */
+    private static class RowCounter implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final Timer timer; // null when metrics are off
+        private final SlowQueryLog.Entry slowQuery;
+
+        RowCounter(ResultSet resultSet, Timer timer, SlowQueryLog.Entry slowQuery) {
+            this.resultSet = resultSet;
+            this.timer = timer;
+            this.slowQuery = slowQuery;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                Object result = method.invoke(resultSet, args);
+                if (name.equals("next") && Boolean.TRUE.equals(result)) {
+                    if (timer != null) {
+                        timer.rows.increment();
+                        CommandCounts counts = currentCommand.get();
+                        if (counts != null) {
+                            counts.rows++;
+                        }
+                    }
+                    if (slowQuery != null) {
+                        slowQuery.addRow();
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
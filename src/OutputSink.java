@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Where the console output of the commands goes. Writes are collected in CHUNK_SIZE byte chunks, and a dedicated
+ * writer thread writes the full chunks to the underlying stream, so a command printing a large report keeps
+ * running its queries while the terminal catches up, and the terminal gets big writes instead of a flush per line.
+ *
+ * The queue between the two holds at most QUEUE_SIZE chunks. When the writer falls that far behind, a write
+ * waits for it, so a huge report never sits in memory all at once. flush() only hands the buffered bytes to the
+ * writer thread; sync() also waits until they have been written, which the prompt does before reading the next
+ * command. An error writing to the underlying stream is thrown by the next write, flush or sync.
+ *
+ * Wrap it in a PrintStream without auto flush to use it as a Session's output.
+ */
+public class OutputSink extends OutputStream {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int QUEUE_SIZE = 8;
+    private static final Chunk STOP = new Chunk(null, 0, null);
+
+    private final OutputStream out;
+    private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+    private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE + 1);
+    private byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Starts the writer thread.
+     * @param out where the output is written. Closing the sink doesn't close it.
+     */
+    public OutputSink(OutputStream out) {
+        this.out = out;
+        Thread writer = new Thread(this::writeChunks, "output-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            handOff(null);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (count == buffer.length) {
+                handOff(null);
+            }
+            int n = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the writer thread without waiting for them to be written.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            handOff(null);
+        }
+    }
+
+    /**
+     * Waits until everything written so far has been written to the underlying stream.
+     */
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        CountDownLatch written = new CountDownLatch(1);
+        handOff(written);
+        try {
+            written.await();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the output to be written");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes everything that is left and stops the writer thread.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            put(STOP);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The output is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Queues the buffer, if it has anything in it, and carries on with a recycled one.
+     * @param written counted down once the chunk has been written, can be null
+     */
+    private void handOff(CountDownLatch written) throws IOException {
+        put(new Chunk(count > 0 ? buffer : null, count, written));
+        if (count > 0) {
+            byte[] recycled = freeBuffers.poll();
+            buffer = recycled != null ? recycled : new byte[CHUNK_SIZE];
+            count = 0;
+        }
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        try {
+            queue.put(chunk); // waits while the writer thread is QUEUE_SIZE chunks behind
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the output to be written");
+        }
+    }
+
+    /**
+     * The writer thread. Flushes the underlying stream whenever it runs out of chunks to write.
+     */
+    private void writeChunks() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException interruptedException) {
+                return;
+            }
+            if (chunk == STOP) {
+                return;
+            }
+
+            try {
+                if (failure == null && chunk.bytes != null) {
+                    out.write(chunk.bytes, 0, chunk.length);
+                }
+                if (failure == null && queue.isEmpty()) {
+                    out.flush();
+                }
+            } catch (IOException ioException) {
+                failure = ioException;
+            } catch (RuntimeException runtimeException) {
+                failure = new IOException(runtimeException);
+            }
+            if (chunk.bytes != null) {
+                freeBuffers.offer(chunk.bytes);
+            }
+            if (chunk.written != null) {
+                chunk.written.countDown();
+            }
+        }
+    }
+
+    private static class Chunk {
+        final byte[] bytes;
+        final int length;
+        final CountDownLatch written;
+
+        Chunk(byte[] bytes, int length, CountDownLatch written) {
+            this.bytes = bytes;
+            this.length = length;
+            this.written = written;
+        }
+    }
+}
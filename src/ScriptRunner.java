@@ -0,0 +1,302 @@
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a file of grade manager commands in one process, so jobs like the nightly grade sync don't start the
+ * program once per command. The commands are the same as at the interactive prompt, one per line. Blank lines
+ * and lines starting with # are skipped, and quit or exit ends the script early.
+ *
+ * The whole script is read and every command checked against its signature before the first one runs. If any
+ * line names an unknown command or has bad arguments, all of those lines are reported and nothing runs.
+ *
+ * Every command in the script runs in one Session on a single pooled connection. With a transaction size of N
+ * greater than 1, the commands are also grouped into transactions of N commands: the commits of the commands are
+ * deferred to the end of their group, and a command that rolls back only undoes its own changes (each command
+ * starts at a savepoint). If a group fails to commit, the whole group is lost and the caches are cleared.
+ */
+public class ScriptRunner {
+
+    private static final String SAVEPOINT_NAME = "script_command";
+
+    /**
+     * Runs the commands in a file and prints how long they took.
+     * @param fileName the script, or - to read the commands from standard input
+     * @param transactionSize how many commands to group into one transaction, 1 to commit every command on its own
+     */
+    public static void run(String fileName, int transactionSize) {
+        long startTime = System.nanoTime();
+        List<Line> script = read(fileName);
+        if (script == null) {
+            return;
+        }
+
+        // the output of the commands is written by the output writer thread, see OutputSink
+        PrintStream out = new PrintStream(new OutputSink(new FileOutputStream(FileDescriptor.out)), false);
+        SlowQueryLog.setOutput(out);
+        boolean grouped = transactionSize > 1;
+        Connection physical = null;
+        int lineNumber = 0;
+        int commands = 0;
+        int failed = 0;
+        int lost = 0;
+
+        try {
+            physical = Database.getDatabaseConnection();
+            ScriptConnection handler = new ScriptConnection(physical, grouped);
+            Connection connection = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+            Session session = new Session(out, connection);
+            if (grouped) {
+                physical.setAutoCommit(false);
+            }
+
+            int pending = 0;
+            int groupStart = 0;
+            for (Line line : script) {
+                lineNumber = line.lineNumber;
+                if (grouped) {
+                    if (pending == 0) {
+                        groupStart = lineNumber;
+                    }
+                    handler.savepoint = physical.setSavepoint(SAVEPOINT_NAME);
+                }
+                try {
+                    GradeManager.runCommand(session, line.command, line.arguments);
+                } catch (RuntimeException runtimeException) {
+                    failed++;
+                    out.println("Error on line " + lineNumber + ": " + runtimeException);
+                    if (grouped) {
+                        handler.rollbackCommand();
+                    }
+                }
+                commands++;
+
+                if (grouped && handler.groupLost) {
+                    // the server rolled the whole transaction back, like after a deadlock, so the savepoint was gone
+                    out.println("The transaction of the " + (pending + 1) + " commands from line " + groupStart
+                            + " to line " + lineNumber + " was rolled back by the server");
+                    lost += pending + 1;
+                    rollbackGroup(physical);
+                    handler.groupLost = false;
+                    pending = 0;
+                } else if (grouped) {
+                    if (++pending == transactionSize) {
+                        lost += commit(physical, pending, lineNumber, out);
+                        pending = 0;
+                    }
+                } else if (!physical.getAutoCommit()) {
+                    // a transactional command leaves auto-commit off, the next command expects it on. The pool's
+                    // handle skips the rollback unless a transaction is still open, and only switches the mode on
+                    // the server if the next command runs a statement in it
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            }
+            if (grouped && pending > 0) {
+                lost += commit(physical, pending, lineNumber, out);
+            }
+
+        } catch (SQLException sqlException) {
+            out.println("Failed to execute query");
+            out.println(sqlException.getMessage());
+
+        } finally {
+            try {
+                // anything still uncommitted here was interrupted by an error
+                if (physical != null)
+                    physical.close();
+            } catch (SQLException se) {
+                se.printStackTrace();
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        out.printf("Ran %d commands (%d failed, %d rolled back) in %.2f seconds, %.1f commands/sec%n",
+                commands, failed, lost, seconds, seconds > 0 ? commands / seconds : 0);
+        SlowQueryLog.setOutput(null);
+        out.close();
+    }
+
+    /**
+     * Reads a script and checks every command in it, up to the first quit or exit.
+     * @return the commands ready to run, or null if the script couldn't be read or has a bad line
+     */
+    private static List<Line> read(String fileName) {
+        List<Line> script = new ArrayList<Line>();
+        List<String> errors = new ArrayList<String>();
+        CommandTokenizer tokens = new CommandTokenizer();
+        BufferedReader reader = null;
+        int lineNumber = 0;
+
+        try {
+            InputStream in = fileName.equals("-") ? System.in : new FileInputStream(fileName);
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+
+            String text;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+
+                tokens.tokenize(text);
+                if (tokens.equals(0, "quit") || tokens.equals(0, "exit")) {
+                    break;
+                }
+                CommandRegistry.Command command = GradeManager.COMMANDS.find(tokens);
+                if (command == null) {
+                    errors.add("Line " + lineNumber + ": Command not found: " + tokens.getString(0));
+                    continue;
+                }
+                int errorCount = errors.size();
+                CommandRegistry.Arguments arguments = command.bind(tokens.getArguments(), errors);
+                if (arguments == null) {
+                    errors.set(errorCount, "Line " + lineNumber + ": " + errors.get(errorCount));
+                } else {
+                    script.add(new Line(lineNumber, command, arguments));
+                }
+            }
+
+        } catch (IOException ioException) {
+            System.out.println("Failed to read " + fileName);
+            System.out.println(ioException.getMessage());
+            return null;
+
+        } finally {
+            try {
+                if (reader != null && !fileName.equals("-"))
+                    reader.close();
+            } catch (IOException ioe) {
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                System.out.println(error);
+            }
+            System.out.println("The script was not run, " + errors.size() + " of its lines have errors");
+            return null;
+        }
+        return script;
+    }
+
+    /**
+     * Commits a group of commands.
+     * @return how many commands were lost because the commit failed
+     */
+    private static int commit(Connection physical, int pending, int lineNumber, PrintStream out) {
+        try {
+            physical.commit();
+            return 0;
+        } catch (SQLException sqlException) {
+            out.println("Failed to commit the " + pending + " commands up to line " + lineNumber);
+            out.println(sqlException.getMessage());
+            rollbackGroup(physical);
+            return pending;
+        }
+    }
+
+    /**
+     * Rolls back what is left of a group of commands that was lost.
+     */
+    private static void rollbackGroup(Connection physical) {
+        try {
+            physical.rollback();
+        } catch (SQLException se) {
+            se.printStackTrace();
+        }
+        // the caches may hold rows written by the lost commands
+        StudentCache.clear();
+        ClassMetadataCache.clear();
+    }
+
+    /**
+     * A checked command of the script.
+     */
+    private static class Line {
+        final int lineNumber;
+        final CommandRegistry.Command command;
+        final CommandRegistry.Arguments arguments;
+
+        Line(int lineNumber, CommandRegistry.Command command, CommandRegistry.Arguments arguments) {
+            this.lineNumber = lineNumber;
+            this.command = command;
+            this.arguments = arguments;
+        }
+    }
+
+    /**
+     * The connection handed to the commands of a script. Closing it does nothing, since the script keeps using it.
+     * When commands are grouped, their auto-commit changes and commits are ignored, and rollback() only goes back
+     * to the savepoint the current command started at. If that fails, the server has already rolled back the whole
+     * group, which groupLost tells the script.
+     */
+    private static class ScriptConnection implements InvocationHandler {
+        private final Connection physical;
+        private final boolean grouped;
+        Savepoint savepoint;
+        boolean groupLost;
+
+        ScriptConnection(Connection physical, boolean grouped) {
+            this.physical = physical;
+            this.grouped = grouped;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                return null;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Script" + physical;
+            } else if (grouped && (name.equals("setAutoCommit") || name.equals("commit"))) {
+                return null;
+            } else if (grouped && name.equals("rollback") && (args == null || args.length == 0)) {
+                rollbackCommand();
+                return null;
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Undoes the current command by going back to its savepoint.
+         */
+        void rollbackCommand() {
+            if (savepoint == null) {
+                return;
+            }
+            try {
+                physical.rollback(savepoint);
+            } catch (SQLException sqlException) {
+                // a deadlock (1213) rolls back the whole transaction and its savepoints with it
+                groupLost = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The state of one grader using the grade manager: their current active class, where the output of their
+ * commands goes, and optionally one connection that all of their commands share. Every GradeManager command
+ * takes the session it runs for, so sessions never see each other's active class or output.
+ * The student and class metadata caches are not part of a session; they are thread-safe and shared by
+ * every session in the process.
+ * A session can be used from more than one thread, but its commands should run one at a time, like they
+ * would at the prompt.
+ */
+public class Session {
+
+    /** Where the output of the session's commands is printed. */
+    public final PrintStream out;
+    private final Connection connection;
+    private volatile int activeClass = -1;
+
+    /**
+     * Creates a session whose commands borrow a connection from the pool for every command.
+     * @param out where the output of the session's commands is printed
+     */
+    public Session(PrintStream out) {
+        this(out, null);
+    }
+
+    /**
+     * Creates a session whose commands all run on the given connection.
+     * @param out where the output of the session's commands is printed
+     * @param connection the connection to hand to every command, it should ignore close() since every command closes it
+     */
+    public Session(PrintStream out, Connection connection) {
+        this.out = out;
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the connection for a command of this session. Closing it when the command is done gives
+     * a borrowed connection back to the pool.
+     * @return the session's own connection, or one borrowed from the pool
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        return connection != null ? connection : Database.getDatabaseConnection();
+    }
+
+    /**
+     * @return the class_id of the current active class, or -1 if no class has been selected
+     */
+    public int getActiveClass() {
+        return activeClass;
+    }
+
+    /**
+     * @param classId the class_id of the new current active class
+     */
+    public void setActiveClass(int classId) {
+        activeClass = classId;
+    }
+}
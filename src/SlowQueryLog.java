@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Logs every statement that takes longer than CS410_SLOW_QUERY_MS milliseconds (default 200, -1 turns the log off)
+ * with its SQL, bind values and row count. Each slow statement is printed when it finishes, to System.err unless the
+ * console has set its own output with setOutput so the line can't land in the middle of a command's report, and the
+ * most recent CS410_SLOW_QUERY_LOG_SIZE of them (default 100) are kept in a ring buffer for the slow-queries command
+ * and the HTTP server's /slow-queries.
+ * The connection pool does the timing and captures the binds by keeping references to the values it is handed, so
+ * fast statements cost no extra allocations; only a slow statement copies its binds into a new entry. The row count
+ * of a query is the number of rows read so far, since the rows are counted as the caller reads them.
+ */
+public class SlowQueryLog {
+
+    private static final long THRESHOLD_NANOS = Database.getEnvInt("CS410_SLOW_QUERY_MS", 200) * 1000000L;
+    private static final int MAX_BIND_LENGTH = 100;
+
+    private static final Entry[] entries = new Entry[Math.max(1, Database.getEnvInt("CS410_SLOW_QUERY_LOG_SIZE", 100))];
+    private static long recorded; // total ever recorded, the next entry goes at recorded % entries.length
+    private static volatile PrintStream output = System.err;
+
+    /**
+     * Sets where slow statements are printed as they finish.
+     * @param out the console's output, or null for System.err
+     */
+    public static void setOutput(PrintStream out) {
+        output = out == null ? System.err : out;
+    }
+
+    /**
+     * @return whether slow statements are being logged
+     */
+    public static boolean isEnabled() {
+        return THRESHOLD_NANOS >= 0;
+    }
+
+    /**
+     * @param nanos how long a statement took
+     * @return whether it should be logged
+     */
+    public static boolean isSlow(long nanos) {
+        return THRESHOLD_NANOS >= 0 && nanos >= THRESHOLD_NANOS;
+    }
+
+    /**
+     * Logs a slow statement.
+     * @param sql the SQL text of the statement
+     * @param binds the bind values by parameter index - 1, can be null
+     * @param bindCount how many of binds are set
+     * @param nanos how long the statement took
+     * @param rows the update count, or -1 for a query whose rows haven't been read yet
+     * @return the entry, the caller adds the rows of a query to it as they are read
+     */
+    public static Entry record(String sql, Object[] binds, int bindCount, long nanos, long rows) {
+        Entry entry = new Entry(sql, binds == null ? new Object[0] : Arrays.copyOf(binds, bindCount), nanos, rows);
+        synchronized (entries) {
+            entries[(int) (recorded % entries.length)] = entry;
+            recorded++;
+        }
+        output.printf("Slow query (%.2f ms): %s%s%n", nanos / 1e6, sql, entry.formatBinds());
+        return entry;
+    }
+
+    /**
+     * @return the logged statements, oldest first
+     */
+    public static List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<Entry>();
+        synchronized (entries) {
+            long first = Math.max(0, recorded - entries.length);
+            for (long i = first; i < recorded; i++) {
+                list.add(entries[(int) (i % entries.length)]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Forgets every logged statement.
+     */
+    public static void clear() {
+        synchronized (entries) {
+            Arrays.fill(entries, null);
+            recorded = 0;
+        }
+    }
+
+    /**
+     * Prints the logged statements, oldest first.
+     * @param out where to print them
+     */
+    public static void print(PrintStream out) {
+        if (!isEnabled()) {
+            out.println("The slow query log is turned off (CS410_SLOW_QUERY_MS=-1)");
+            return;
+        }
+        List<Entry> list = getEntries();
+        out.printf("%d statements slower than %d ms%n", list.size(), THRESHOLD_NANOS / 1000000);
+        for (Entry entry : list) {
+            out.printf("%tT %9.2f ms %8s rows  %s%s%n", entry.timestamp, entry.nanos / 1e6,
+                    entry.getRows() < 0 ? "?" : Long.toString(entry.getRows()), entry.sql, entry.formatBinds());
+        }
+    }
+
+    /**
+     * @return the logged statements as a JSON array, oldest first
+     */
+    public static String toJson() {
+        StringWriter json = new StringWriter();
+        try {
+            json.write('[');
+            boolean first = true;
+            for (Entry entry : getEntries()) {
+                json.write(first ? "\n{\"timestamp\":" : ",\n{\"timestamp\":");
+                json.write(Long.toString(entry.timestamp));
+                json.write(",\"ms\":" + Math.round(entry.nanos / 1e4) / 100.0);
+                json.write(",\"rows\":" + (entry.getRows() < 0 ? "null" : Long.toString(entry.getRows())));
+                json.write(",\"sql\":");
+                GradebookWriter.writeJsonString(json, entry.sql);
+                json.write(",\"binds\":[");
+                for (int i = 0; i < entry.binds.length; i++) {
+                    if (i > 0) {
+                        json.write(',');
+                    }
+                    Object value = entry.binds[i];
+                    if (value instanceof Number || value instanceof Boolean) {
+                        json.write(value.toString());
+                    } else {
+                        GradebookWriter.writeJsonString(json, value == null ? null : truncate(value.toString()));
+                    }
+                }
+                json.write("]}");
+                first = false;
+            }
+            json.write("\n]\n");
+        } catch (IOException ioException) {
+            // a StringWriter doesn't throw
+        }
+        return json.toString();
+    }
+
+    private static String truncate(String text) {
+        return text.length() > MAX_BIND_LENGTH ? text.substring(0, MAX_BIND_LENGTH - 3) + "..." : text;
+    }
+
+    /**
+     * One slow statement.
+     */
+    public static class Entry {
+        /** when the statement finished, in milliseconds since the epoch */
+        public final long timestamp = System.currentTimeMillis();
+        public final String sql;
+        public final Object[] binds;
+        public final long nanos;
+        private volatile long rows;
+
+        Entry(String sql, Object[] binds, long nanos, long rows) {
+            this.sql = sql;
+            this.binds = binds;
+            this.nanos = nanos;
+            this.rows = rows;
+        }
+
+        /**
+         * @return the update count, the rows read so far for a query, or -1 if none have been read
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        void addRow() {
+            rows = rows < 0 ? 1 : rows + 1; // only the thread reading the result set adds rows
+        }
+
+        String formatBinds() {
+            if (binds.length == 0) {
+                return "";
+            }
+            StringBuilder text = new StringBuilder(" binds [");
+            for (int i = 0; i < binds.length; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                Object value = binds[i];
+                if (value == null) {
+                    text.append("NULL");
+                } else if (value instanceof String) {
+                    text.append('\'').append(truncate((String) value)).append('\'');
+                } else {
+                    text.append(truncate(value.toString()));
+                }
+            }
+            return text.append(']').toString();
+        }
+    }
+}
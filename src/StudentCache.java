@@ -0,0 +1,145 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the student_id and name of each username, so commands that start by looking a student up
+ * (grade, add-student, change name) can skip that query for students they have seen before. GradeManager
+ * writes through to the cache whenever it inserts a student or changes a name, once the transaction that did
+ * it has committed, so other sessions never see a student that may still be rolled back. Students that don't
+ * exist are never cached.
+ * The cache is safe to use from several threads and holds a bounded number of students; when it is
+ * full, arbitrary entries are dropped to make room.
+ */
+public class StudentCache {
+
+    private static final int CAPACITY = Database.getEnvInt("CS410_STUDENT_CACHE_SIZE", 10000);
+
+    private static final ConcurrentHashMap<String, Student> students = new ConcurrentHashMap<String, Student>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    /**
+     * Finds a student by username, querying the database on the given connection if they aren't cached.
+     * @param connection the connection of the command that needs the student
+     * @param username the username of the student
+     * @return the student, or null if there is no student with that username
+     * @throws SQLException
+     */
+    public static Student find(Connection connection, String username) throws SQLException {
+        Student student = students.get(username);
+        if (student != null) {
+            hits.increment();
+            return student;
+        }
+        misses.increment();
+
+        String query = "SELECT student_id, name FROM Students WHERE username = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, username);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                student = new Student(resultSet.getInt("student_id"), username, resultSet.getString("name"));
+            }
+        }
+        put(student);
+        return student;
+    }
+
+    /**
+     * Returns a student only if they are cached. Counts as a hit or miss like find().
+     * @param username the username of the student
+     * @return the cached student, or null
+     */
+    public static Student getIfCached(String username) {
+        Student student = students.get(username);
+        if (student != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return student;
+    }
+
+    /**
+     * Stores a student that was just read or written.
+     * @param studentId the student's student_id
+     * @param username the student's username
+     * @param name the student's name
+     */
+    public static void put(int studentId, String username, String name) {
+        put(new Student(studentId, username, name));
+    }
+
+    /**
+     * Drops a student whose cached row may no longer match the database.
+     * @param username the username of the student
+     */
+    public static void invalidate(String username) {
+        students.remove(username);
+    }
+
+    /**
+     * Drops every cached student.
+     */
+    public static void clear() {
+        students.clear();
+    }
+
+    /**
+     * @return how many lookups were answered from the cache
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many lookups had to go to the database
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, 0 if there were none
+     */
+    public static double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private static void put(Student student) {
+        students.put(student.username, student);
+        if (students.size() > CAPACITY) {
+            Iterator<String> usernames = students.keySet().iterator();
+            while (students.size() > CAPACITY && usernames.hasNext()) {
+                String username = usernames.next();
+                if (!username.equals(student.username)) {
+                    usernames.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The cached columns of a row of Students.
+     */
+    public static class Student {
+        public final int studentId;
+        public final String username;
+        public final String name;
+
+        Student(int studentId, String username, String name) {
+            this.studentId = studentId;
+            this.username = username;
+            this.name = name;
+        }
+    }
+}
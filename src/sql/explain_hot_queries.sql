@@ -0,0 +1,64 @@
+-- Query plans of the hot queries in GradeManager. Run it before and after
+-- migrations/001_indexes_and_term_key.sql (ideally on data from the data generator) and compare the
+-- key, rows and Extra columns: the goal is no "Using filesort" or full scans ("type: ALL") on Classes,
+-- Enrollments and Grades, and "Using index" where the new covering indexes apply.
+--   mysql grade_manager < explain_hot_queries.sql
+USE grade_manager;
+
+SET @class_id = 1;
+SET @course_num = 'CS410';
+
+-- select-class: most recent section of a course, old ORDER BY on SUBSTRING(term) (filesort)
+EXPLAIN
+SELECT class_id, term, section_num
+FROM Classes
+WHERE course_num = @course_num
+ORDER BY CAST(SUBSTRING(term, 3) AS UNSIGNED) DESC,
+         CASE SUBSTRING(term, 1, 2) WHEN 'Fa' THEN 1 WHEN 'Sp' THEN 2 ELSE 3 END
+LIMIT 2;
+
+-- select-class: the same lookup on term_key (backwards index range scan, needs the migration)
+EXPLAIN
+SELECT class_id, term, section_num, term_key
+FROM Classes
+WHERE course_num = @course_num
+ORDER BY term_key DESC, section_num DESC
+LIMIT 2;
+
+-- show-students <string>: students of a class, should start from Enrollments by class_id
+EXPLAIN
+SELECT s.username, s.name FROM Students s
+JOIN Enrollments e ON s.student_id = e.student_id
+WHERE (LOWER(s.username) LIKE '%an%' OR LOWER(s.name) LIKE '%an%') AND e.class_id = @class_id;
+
+-- show-assignment: assignments of a class, Categories by class_id
+EXPLAIN
+SELECT c.name AS category_name, a.name AS assignment_name, a.point_val
+FROM Assignments a
+JOIN Categories c ON a.category_id = c.category_id
+WHERE c.class_id = @class_id
+ORDER BY c.name, a.name;
+
+-- gradebook and gradebook weighted: Enrollments by class_id, then Categories and GradeTotals by key,
+-- one row per student and category
+EXPLAIN
+SELECT s.username, s.student_id, s.name AS student_name,
+       COALESCE(SUM(gt.score_total), 0) AS total_score,
+       COALESCE(SUM(c.total_points), 0) AS total_points
+FROM Enrollments e
+JOIN Students s ON s.student_id = e.student_id
+LEFT JOIN Categories c ON c.class_id = e.class_id
+LEFT JOIN GradeTotals gt ON gt.student_id = e.student_id AND gt.category_id = c.category_id
+WHERE e.class_id = @class_id
+GROUP BY s.username, s.student_id, s.name
+ORDER BY s.username;
+
+-- import-grades: recomputing the totals of a chunk's students, Grades reached through
+-- idx_grades_assignment_student_score ("Using index")
+EXPLAIN
+SELECT g.student_id, a.category_id, SUM(g.score), SUM(a.point_val)
+FROM Categories c
+JOIN Assignments a ON a.category_id = c.category_id
+JOIN Grades g ON g.assignment_id = a.assignment_id
+WHERE c.class_id = @class_id
+GROUP BY g.student_id, a.category_id;
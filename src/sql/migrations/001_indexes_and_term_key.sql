@@ -0,0 +1,27 @@
+-- Adds the secondary indexes and the sortable term column from schema.sql to an existing database.
+-- Run once against a database that was created before they were added to schema.sql.
+USE grade_manager;
+
+-- Sortable version of term: two digit year * 10 + season (Fa = 3, Sp = 2, anything else = 1)
+ALTER TABLE Classes
+    ADD COLUMN term_key INT AS (CAST(SUBSTRING(term, 3) AS UNSIGNED) * 10 +
+                                CASE SUBSTRING(term, 1, 2) WHEN 'Fa' THEN 3 WHEN 'Sp' THEN 2 ELSE 1 END) STORED,
+    ADD INDEX idx_classes_course_term_key (course_num, term_key, section_num);
+
+-- Covers the per-class category lookups of the gradebooks (category_id comes along as the primary key)
+ALTER TABLE Categories
+    ADD INDEX idx_categories_class_weight (class_id, weight);
+
+-- Covers summing the points of a category without reading the rows
+ALTER TABLE Assignments
+    ADD INDEX idx_assignments_category_points (category_id, point_val);
+
+-- Class first, for listing and searching the students of a class
+ALTER TABLE Enrollments
+    ADD INDEX idx_enrollments_class_student (class_id, student_id);
+
+-- Assignment first and covering, for totalling the grades of a class's assignments
+ALTER TABLE Grades
+    ADD INDEX idx_grades_assignment_student_score (assignment_id, student_id, score);
+
+ANALYZE TABLE Classes, Categories, Assignments, Enrollments, Grades;
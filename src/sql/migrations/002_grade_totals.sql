@@ -0,0 +1,31 @@
+-- Adds the running gradebook totals from schema.sql to an existing database and fills them in.
+-- Run once against a database that was created before they were added to schema.sql, while nothing else
+-- is writing grades or assignments.
+USE grade_manager;
+
+-- Sum of the point values of the category's assignments, kept up to date by add-assignment
+ALTER TABLE Categories
+    ADD COLUMN total_points INT NOT NULL DEFAULT 0;
+
+-- Running totals of each student's grades per category
+CREATE TABLE GradeTotals (
+    student_id INT,
+    category_id INT,
+    score_total FLOAT NOT NULL DEFAULT 0,
+    -- Sum of the point values of the graded assignments
+    graded_points INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (student_id, category_id),
+    FOREIGN KEY (student_id) REFERENCES Students(student_id),
+    FOREIGN KEY (category_id) REFERENCES Categories(category_id)
+);
+
+UPDATE Categories c
+SET c.total_points = (SELECT COALESCE(SUM(a.point_val), 0) FROM Assignments a WHERE a.category_id = c.category_id);
+
+INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points)
+SELECT g.student_id, a.category_id, SUM(g.score), SUM(a.point_val)
+FROM Grades g
+JOIN Assignments a ON g.assignment_id = a.assignment_id
+GROUP BY g.student_id, a.category_id;
+
+ANALYZE TABLE Categories, GradeTotals;
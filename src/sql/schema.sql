@@ -8,7 +8,12 @@ CREATE TABLE Classes (
     term VARCHAR(10),
     section_num INT,
     description VARCHAR(255),
-    UNIQUE(course_num, term, section_num)
+    -- Sortable version of term: two digit year * 10 + season (Fa = 3, Sp = 2, anything else = 1),
+    -- so the most recent term of a course is an index range scan instead of a filesort
+    term_key INT AS (CAST(SUBSTRING(term, 3) AS UNSIGNED) * 10 +
+                     CASE SUBSTRING(term, 1, 2) WHEN 'Fa' THEN 3 WHEN 'Sp' THEN 2 ELSE 1 END) STORED,
+    UNIQUE(course_num, term, section_num),
+    INDEX idx_classes_course_term_key (course_num, term_key, section_num)
 );
 
 -- Create Categories table
@@ -17,8 +22,12 @@ CREATE TABLE Categories (
     class_id INT,
     name VARCHAR(50),
     weight FLOAT,
+    -- Sum of the point values of the category's assignments, kept up to date by add-assignment
+    total_points INT NOT NULL DEFAULT 0,
     FOREIGN KEY (class_id) REFERENCES Classes(class_id),
-    UNIQUE(class_id, name)
+    UNIQUE(class_id, name),
+    -- Covers the per-class category lookups of the gradebooks (category_id comes along as the primary key)
+    INDEX idx_categories_class_weight (class_id, weight)
 );
 
 -- Create Assignments table
@@ -29,7 +38,9 @@ CREATE TABLE Assignments (
     description VARCHAR(255),
     point_val INT,
     UNIQUE(category_id, name),
-    FOREIGN KEY (category_id) REFERENCES Categories(category_id)
+    FOREIGN KEY (category_id) REFERENCES Categories(category_id),
+    -- Covers summing the points of a category without reading the rows
+    INDEX idx_assignments_category_points (category_id, point_val)
 );
 
 -- Create Students table
@@ -47,7 +58,9 @@ CREATE TABLE Enrollments (
     class_id INT,
     FOREIGN KEY (student_id) REFERENCES Students(student_id),
     FOREIGN KEY (class_id) REFERENCES Classes(class_id),
-    UNIQUE(student_id, class_id)
+    UNIQUE(student_id, class_id),
+    -- Class first, for listing and searching the students of a class
+    INDEX idx_enrollments_class_student (class_id, student_id)
 );
 
 -- Create Grades table
@@ -58,7 +71,22 @@ CREATE TABLE Grades (
     score FLOAT,
     FOREIGN KEY (student_id) REFERENCES Students(student_id),
     FOREIGN KEY (assignment_id) REFERENCES Assignments(assignment_id),
-    UNIQUE(student_id, assignment_id)
+    UNIQUE(student_id, assignment_id),
+    -- Assignment first and covering, for totalling the grades of a class's assignments
+    INDEX idx_grades_assignment_student_score (assignment_id, student_id, score)
+);
+
+-- Running totals of each student's grades per category, kept up to date in the same transaction as every
+-- change to Grades, so the gradebooks read one row per student and category instead of every grade
+CREATE TABLE GradeTotals (
+    student_id INT,
+    category_id INT,
+    score_total FLOAT NOT NULL DEFAULT 0,
+    -- Sum of the point values of the graded assignments
+    graded_points INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (student_id, category_id),
+    FOREIGN KEY (student_id) REFERENCES Students(student_id),
+    FOREIGN KEY (category_id) REFERENCES Categories(category_id)
 );
 
 
@@ -118,4 +146,14 @@ VALUES
   (1, 5, 28),
   (2, 6, 36),
   (3, 2, 13.5),
-  (4, 3, 48);
\ No newline at end of file
+  (4, 3, 48);
+
+-- Fill in the running totals for the dummy data
+UPDATE Categories c
+SET c.total_points = (SELECT COALESCE(SUM(a.point_val), 0) FROM Assignments a WHERE a.category_id = c.category_id);
+
+INSERT INTO GradeTotals (student_id, category_id, score_total, graded_points)
+SELECT g.student_id, a.category_id, SUM(g.score), SUM(a.point_val)
+FROM Grades g
+JOIN Assignments a ON g.assignment_id = a.assignment_id
+GROUP BY g.student_id, a.category_id;